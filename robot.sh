@@ -0,0 +1,40 @@
+#!/bin/sh
+#
+# Starts the robot with an application class-data sharing (AppCDS) archive, so
+# the classes of JGit, JavaMail and Axis are mapped from the archive instead of
+# being loaded and verified from the jar on every cold start.
+#
+# JDK 13 or above: the first run (or the first run after the jar changes) is the
+# training run and dumps the archive on exit, later runs map it. The dump goes to
+# a file of its own that is then renamed over the archive, so cold runs started
+# together never map a half written archive. Older JDKs run the jar as is.
+#
+# Usage: ./robot.sh -DmergeFrom=dev -DmergeTo=master -Dmessage="..." -DmailTo=...
+
+DIR=$(cd "$(dirname "$0")" && pwd)
+
+JAVA=${JAVA:-java}
+JAR=${ROBOT_JAR:-$DIR/target/git-merge-robot.jar}
+ARCHIVE=${ROBOT_CDS_ARCHIVE:-${JAR%.jar}.jsa}
+
+VERSION=$("$JAVA" -version 2>&1 | sed -n 's/.*version "\([0-9]*\).*/\1/p' | head -n 1)
+
+if [ -n "$VERSION" ] && [ "$VERSION" -ge 13 ]; then
+  if [ -f "$ARCHIVE" ] && [ "$ARCHIVE" -nt "$JAR" ]; then
+    exec "$JAVA" -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto -Xlog:cds=off $JAVA_OPTS "$@" -jar "$JAR"
+  fi
+
+  DUMP="$ARCHIVE.$$.part"
+  trap 'rm -f "$DUMP"' EXIT
+
+  "$JAVA" -XX:ArchiveClassesAtExit="$DUMP" -Xlog:cds=off $JAVA_OPTS "$@" -jar "$JAR"
+  STATUS=$?
+
+  if [ -s "$DUMP" ]; then
+    mv -f "$DUMP" "$ARCHIVE"
+  fi
+
+  exit $STATUS
+fi
+
+exec "$JAVA" $JAVA_OPTS "$@" -jar "$JAR"
@@ -1,39 +1,71 @@
 package io.hsiao.gitmerge;
 
+import io.hsiao.gitmerge.batch.MergeQueue;
+import io.hsiao.gitmerge.batch.MergeRequest;
+import io.hsiao.gitmerge.config.Config;
+import io.hsiao.gitmerge.history.ConflictHistory;
+import io.hsiao.gitmerge.jgit.Blame;
+import io.hsiao.gitmerge.jgit.BlameAdmission;
+import io.hsiao.gitmerge.jgit.BlameBudget;
+import io.hsiao.gitmerge.jgit.CommitNoteWalk;
+import io.hsiao.gitmerge.jgit.Expression;
 import io.hsiao.gitmerge.jgit.JGit;
+import io.hsiao.gitmerge.jgit.MergeCache;
+import io.hsiao.gitmerge.journal.Journal;
+import io.hsiao.gitmerge.log.Log;
 import io.hsiao.gitmerge.mail.Mail;
+import io.hsiao.gitmerge.mail.Outbox;
+import io.hsiao.gitmerge.risk.RiskMatrix;
+import io.hsiao.gitmerge.scratch.ScratchSpace;
 import io.hsiao.gitmerge.teamforge.Teamforge;
 import io.hsiao.gitmerge.utils.CommonUtils;
 import io.hsiao.gitmerge.utils.FileUtils;
+import io.hsiao.gitmerge.utils.JsonWriter;
+import io.hsiao.gitmerge.utils.ProcessRunner;
 import io.hsiao.gitmerge.utils.StringUtils;
 import io.hsiao.gitmerge.utils.ZipUtils;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
 import java.text.Format;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.eclipse.jgit.api.CheckoutResult;
 import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.MergeResult.MergeStatus;
-import org.eclipse.jgit.api.Status;
-import org.eclipse.jgit.blame.BlameResult;
 import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.internal.storage.file.GC.RepoStatistics;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.IndexDiff.StageState;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.merge.ResolveMerger.MergeFailureReason;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.PushResult;
 import org.eclipse.jgit.transport.RemoteRefUpdate;
@@ -42,117 +74,537 @@ import org.eclipse.jgit.transport.TrackingRefUpdate;
 public final class Robot {
   private static final int OUTPUT_WIDTH = 100;
   private static final String BLAME_FILE_NAME = "blame.zip";
+  private static final String MERGE_OPTIONS = "-s recursive -Xignore-all-space --no-ff";
   private static final String CONFIG_FILE_NAME = "config.properties";
   private static final String ENCODING = "UTF-8";
 
   private final JGit jgit;
-  private final Properties props;
-  private final Teamforge teamforge;
+  private final ProcessRunner processRunner;
+  private final MergeCache mergeCache;
+  private final Config config;
+  private Teamforge teamforge;
 
+  private final ScratchSpace scratch;
+  private final ScratchSpace blameScratch;
   private final File tmpDir;
   private final Map<String, StageState> conflicts;
+  private final Map<String, StageState> lastMergeConflicts;
+  private final Map<String, Map<String, StageState>> rejectedMerges;
+  private final List<ConflictHistory.Run> mergeRuns;
+
+  private Outbox outbox;
+  private final List<String> mailTos;
+
+  private WindowCacheConfig windowCacheConfig;
+
+  private final long startedMs;
+  private final String runId;
+  private long firstFetchMs;
+  private final Map<String, Long> stageTimings;
+  private String currentStage;
+  private long currentStageStartedMs;
+
+  private FetchResult fetchResult;
+  private RepoStatistics repoStatistics;
+  private boolean isMaintenanceDue;
+  private RevCommit mergeCommit;
+  private boolean isMergeAborted;
+  private boolean isNothingToMerge;
+  private final List<String> alreadyMerged;
+  private final Collection<RemoteRefUpdate> pushUpdates;
+
+  private Journal journal;
+
+  private MergeQueue queue;
+  private final List<MergeRequest> requests;
+
+  private RiskMatrix riskMatrix;
+  private Thread riskWorker;
+  private volatile List<RiskMatrix.Entry> riskEntries;
+  private volatile Exception riskError;
+  private volatile long riskMillis;
+  private final List<String> resumedStages;
+
+  private final List<CommitNoteWalk.Entry> changelog;
+  private long changelogTotal;
+  private String changelogFirstRevision;
+  private String changelogLastRevision;
 
   private String mergeFromBranch;
   private String mergeFromObjectId;
   private String mergeFromRevision;
+  private String mergeToRevision;
 
   public Robot() throws Exception {
-    props = CommonUtils.loadProperties(CONFIG_FILE_NAME);
+    // a process running several robots picks up an edited config file with the next robot, never mid run
+    config = Config.reload(CONFIG_FILE_NAME);
 
-    jgit = new JGit(CommonUtils.getProperty(props, "git.repo.dir", false), CommonUtils.getProperty(props, "git.progress.monitor", false));
+    startedMs = System.currentTimeMillis();
+    runId = String.format("%d-%04x", startedMs, new SecureRandom().nextInt(0x10000));
 
-    if (props.containsKey("ctf.server.url") && props.containsKey("ctf.username") && props.containsKey("ctf.password")) {
-      teamforge = new Teamforge(CommonUtils.getProperty(props, "ctf.server.url", false), 60 * 1000);
+    Log.start(config.getString("log.format", false), config.getInt("log.buffer.size"),
+        config.getLong("log.progress.interval.ms"));
+    Log.setContext("run", runId);
+    Log.setContext("repo", config.getString("git.repo.dir", false));
+
+    installWindowCache();
+
+    jgit = new JGit(config.getString("git.repo.dir", false), config.getString("git.progress.monitor", false));
+    processRunner = new ProcessRunner(jgit.getWorkTree());
+
+    if (!config.getString("merge.cache.dir", true).isEmpty()) {
+      mergeCache = new MergeCache(new File(config.getString("merge.cache.dir", false)),
+          config.getInt("merge.cache.max.entries"));
     }
     else {
-      teamforge = null;
+      mergeCache = null;
+    }
+
+    // per run scratch directories, leftovers of earlier runs are cleaned up in the background
+    final String scratchDir = config.getString("scratch.dir", true);
+    scratch = ScratchSpace.open(scratchDir.isEmpty() ? new File(System.getProperty("java.io.tmpdir"), "git-merge-robot") : new File(scratchDir), runId);
+
+    final String blameScratchDir = config.getString("scratch.blame.dir", true);
+    blameScratch = blameScratchDir.isEmpty() ? null : ScratchSpace.open(new File(blameScratchDir), runId);
+
+    final long scratchMaxAgeMs = config.getLong("scratch.max.age.hours") * 60 * 60 * 1000;
+    final long scratchMaxBytes = config.getLong("scratch.max.size.mb") * 1024 * 1024;
+    scratch.cleanAsync(scratchMaxAgeMs, scratchMaxBytes);
+    if (blameScratch != null) {
+      blameScratch.cleanAsync(scratchMaxAgeMs, scratchMaxBytes);
     }
 
-    tmpDir = Files.createTempDirectory(null).toFile();
+    tmpDir = scratch.getDir();
     conflicts = new TreeMap<>();
+    lastMergeConflicts = new TreeMap<>();
+    rejectedMerges = new LinkedHashMap<>();
+    mergeRuns = new ArrayList<>();
+
+    stageTimings = new LinkedHashMap<>();
+    changelog = new ArrayList<>();
+    mailTos = new ArrayList<>();
+    alreadyMerged = new ArrayList<>();
+    pushUpdates = new ArrayList<>();
+    resumedStages = new ArrayList<>();
+    requests = new ArrayList<>();
   }
 
   public void powerOn() {
-    System.out.println(StringUtils.prettyFormat("=", OUTPUT_WIDTH, "Git Merge Robot [started]"));
+    Log.pretty("=", OUTPUT_WIDTH, "Git Merge Robot [started]");
   }
 
   public void doWork() throws Exception {
-    final String mergeFrom = CommonUtils.getSystemProperty("mergeFrom", false);
+    final String mode = CommonUtils.getSystemProperty("mode", true);
     final String mergeTo = CommonUtils.getSystemProperty("mergeTo", false);
-    final String message = CommonUtils.getSystemProperty("message", false);
 
-    final String remote = CommonUtils.getProperty(props, "git.remote", false);
+    final String remote = config.getString("git.remote", false);
 
-    // checking repository cleanliness
-    System.out.println("==> Checking git repository cleanliness\n");
-    if (!jgit.isClean()) {
-      throw new RuntimeException("[ERROR] git repository is NOT clean [aborted]");
+    if (mode.equalsIgnoreCase("enqueue")) {
+      Log.println("==> Queueing merge request\n");
+      doEnqueue(mergeTo);
+      closeScratch(true);
+      jgit.close();
+      return;
     }
 
-    // locking 'to' branch
-    System.out.println("==> Locking branch [" + mergeTo + "]\n");
-    setBranchCommitStatus(mergeTo, false);
-
-    // fetching from remote
-    System.out.println("==> Fetching from remote [" + remote + "]\n");
-    doFetch(remote);
+    if (mode.equalsIgnoreCase("batch")) {
+      Log.println("==> Claiming queued merge requests for [" + mergeTo + "]\n");
+      queue = new MergeQueue(new File(config.getString("batch.queue.dir", false)), config.getInt("batch.max.attempts"));
+      requests.addAll(queue.claim(mergeTo, config.getLong("batch.window.seconds") * 1000,
+          config.getLong("batch.claim.timeout.minutes") * 60 * 1000));
+
+      if (requests.isEmpty()) {
+        logFailedRequests();
+        Log.pretty("*", OUTPUT_WIDTH, "[WARN] No queued merge requests ready for [" + mergeTo + "]");
+        closeScratch(true);
+        jgit.close();
+        return;
+      }
+    }
+    else if (mode.isEmpty()) {
+      final String message = CommonUtils.getSystemProperty("message", false);
 
-    // parsing 'mergeFrom' expression
-    System.out.println("==> Parsing 'mergeFrom' expression\n");
-    doParse(mergeFrom, remote);
+      for (final String expression: CommonUtils.getSystemProperty("mergeFrom", false).split(",")) {
+        if (!expression.trim().isEmpty()) {
+          requests.add(new MergeRequest(expression.trim(), mergeTo, message, CommonUtils.getSystemProperty("mailTo", true), System.currentTimeMillis()));
+        }
+      }
+    }
+    else {
+      throw new RuntimeException("[ERROR] invalid mode [" + mode + "], expected [enqueue] or [batch]");
+    }
 
-    // updating branches with remote
-    System.out.println("==> Updating branches with remote [" + remote + "]\n");
-    System.out.println("==> This may take a while, please be patient ...\n");
-    doUpdate(mergeFromBranch, remote);
-    doUpdate(mergeTo, remote);
+    final StringBuilder mergeFrom = new StringBuilder();
+    for (final MergeRequest request: requests) {
+      mergeFrom.append(mergeFrom.length() == 0 ? "" : ",").append(request.getMergeFrom());
 
-    // merging branches (or specific commits)
-    if (mergeFromObjectId == null) {
-      System.out.println("==> Merging branch [" + mergeFromBranch + "] to [" + mergeTo + "]\n");
-      doForkMerge(mergeFromBranch, mergeTo, message);
+      for (final String mailTo: request.getMailTo().split(",")) {
+        if (!mailTo.trim().isEmpty() && !mailTos.contains(mailTo.trim())) {
+          mailTos.add(mailTo.trim());
+        }
+      }
     }
-    else {
-      System.out.println("==> Merging commit [" + mergeFromObjectId + "] to [" + mergeTo + "]\n");
-      doForkMerge(mergeFromObjectId, mergeTo, message);
+
+    Log.setContext("mergeFrom", mergeFrom.toString());
+    Log.setContext("mergeTo", mergeTo);
+
+    // a rerun of the same request resumes from the journal of the failed run
+    final StringBuilder request = new StringBuilder().append(mode).append("\n").append(mergeTo);
+    for (final MergeRequest mergeRequest: requests) {
+      request.append("\n").append(mergeRequest.getMergeFrom()).append("\n").append(mergeRequest.getMessage());
     }
 
-    // disable repository commit id hook
-    // System.out.println("==> Disabling SVN repository commit id hook\n");
-    // setRepositoryCommitIdHook(false);
+    journal = Journal.open(new File(config.getString("journal.dir", false)), request.toString(),
+        config.getLong("journal.max.age.hours") * 60 * 60 * 1000);
+
+    Exception failure = null;
+
+    try {
+      // checking repository cleanliness
+      startStage("check");
+      Log.println("==> Checking git repository cleanliness\n");
+      if (!jgit.isClean()) {
+        throw new RuntimeException("[ERROR] git repository is NOT clean [aborted]");
+      }
+
+      doCheckJournal(mergeTo);
+
+      // ancestry and merge base queries are answered from an in-memory commit graph, kept between runs in a file
+      if (config.getBoolean("git.commit.graph")) {
+        jgit.openCommitGraph(config.getString("git.commit.graph.file", true).isEmpty() ? null : new File(config.getString("git.commit.graph.file", false)));
+      }
+
+      // fetching from remote, also when resuming: the journal never stands in for fresh remote tips
+      startStage("fetch");
+      Log.println("==> Fetching from remote [" + remote + "]\n");
+      if (firstFetchMs == 0) {
+        firstFetchMs = System.currentTimeMillis();
+      }
+      doFetch(remote);
+      doCheckMaintenance();
+
+      // parsing 'mergeFrom' expressions, single revisions are merged in revision order
+      startStage("parse");
+      Log.println("==> Parsing 'mergeFrom' expression\n");
+      final List<Map<String, String>> merges = new ArrayList<>();
+      final Map<Map<String, String>, String> messages = new HashMap<>();
+      for (final MergeRequest mergeRequest: requests) {
+        final Map<String, String> parsed = doParse(mergeRequest.getMergeFrom(), remote);
+        merges.add(parsed);
+        messages.put(parsed, mergeRequest.getMessage());
+      }
+      sortByRevision(merges);
+
+      // sources 'mergeTo' already contains need no lock, update, merge or push (a resumed merge is always finished)
+      if (!journal.isDone("merge")) {
+        doCheckMerged(merges, mergeTo, remote);
+      }
+
+      if (merges.isEmpty()) {
+        isNothingToMerge = true;
+
+        if (queue != null) {
+          queue.complete(requests);
+        }
+
+        startStage("mail");
+        Log.println("==> Sending out summary mail\n");
+        doSendMail();
+
+        startStage("deliver");
+        Log.println("==> Delivering queued mail\n");
+        doDeliverMail();
+
+        startStage(null);
+
+        journal.delete();
+        return;
+      }
+
+      // locking 'to' branch
+      startStage("lock");
+      Log.println("==> Locking branch [" + mergeTo + "]\n");
+      setBranchCommitStatus(mergeTo, false);
+
+      // computing conflict risk between the risk branches in the background, off the merge path
+      startRiskMatrix(remote);
+
+      // updating branches with remote, repeated on resume unless the merge is done, so it never merges stale sources
+      if (!journal.isDone("merge") || !isResumed("update")) {
+        startStage("update");
+        Log.println("==> Refreshing branch [" + mergeTo + "] from remote [" + remote + "]\n");
+        doRefresh(mergeTo, remote);
+        Log.println("==> Updating branches with remote [" + remote + "]\n");
+        Log.println("==> This may take a while, please be patient ...\n");
+        final Set<String> updated = new HashSet<>();
+        for (final Map<String, String> merge: merges) {
+          if (updated.add(merge.get("mergeFromBranch"))) {
+            doUpdate(merge.get("mergeFromBranch"), remote);
+          }
+        }
+        if (updated.add(mergeTo)) {
+          doUpdate(mergeTo, remote);
+        }
+        mergeToRevision = jgit.findSvnRevision(mergeTo);
+
+        journal.put("update.mergeToRevision", mergeToRevision);
+        journal.put("update.mergeToTip", jgit.resolve(mergeTo).name());
+        journal.complete("update");
+      }
+      else {
+        mergeToRevision = journal.get("update.mergeToRevision");
+      }
+
+      // merging branches (or specific commits), all in the same worktree session
+      if (!isResumed("merge")) {
+        startStage("merge");
+        final ObjectId preMergeTip = jgit.resolve(mergeTo);
+        final StringBuilder mergeCommits = new StringBuilder();
+        for (final Map<String, String> merge: merges) {
+          mergeFromBranch = merge.get("mergeFromBranch");
+          mergeFromObjectId = merge.get("mergeFromObjectId");
+          mergeFromRevision = merge.get("mergeFromRevision");
+
+          final boolean isMerged;
+          if (mergeFromObjectId == null) {
+            Log.println("==> Merging branch [" + mergeFromBranch + "] to [" + mergeTo + "]\n");
+            isMerged = doForkMerge(mergeFromBranch, mergeTo, messages.get(merge));
+          }
+          else {
+            Log.println("==> Merging commit [" + mergeFromObjectId + "] to [" + mergeTo + "]\n");
+            isMerged = doForkMerge(mergeFromObjectId, mergeTo, messages.get(merge));
+          }
+
+          mergeRuns.add(new ConflictHistory.Run(startedMs, mergeFromBranch, mergeTo, mergeFromRevision, mergeToRevision, lastMergeConflicts));
+
+          // a merge over the conflict limit is left out and reported, the rest of the session goes on
+          if (!isMerged) {
+            final String name = (mergeFromObjectId == null) ? ("Branch [" + mergeFromBranch + "]") : ("Commit [" + mergeFromObjectId + "]");
+            rejectedMerges.put(name + " (" + mergeFromRevision + ")", new TreeMap<>(lastMergeConflicts));
+            continue;
+          }
+
+          conflicts.putAll(lastMergeConflicts);
+          mergeCommits.append(mergeCommits.length() == 0 ? "" : ",").append(mergeCommit.name());
+        }
+
+        // nothing to push when every merge of the session was over the limit
+        isMergeAborted = (mergeCommits.length() == 0);
+
+        // listing commits brought in by all merges of the session, as one range
+        if (!isMergeAborted) {
+          Log.println("==> Listing merged commits\n");
+          doChangelog(preMergeTip, jgit.resolve(mergeTo), toObjectIds(mergeCommits.toString()));
+        }
+
+        journal.put("merge.mergeFromBranch", mergeFromBranch);
+        journal.put("merge.mergeFromObjectId", mergeFromObjectId);
+        journal.put("merge.mergeFromRevision", mergeFromRevision);
+        journal.put("merge.commits", mergeCommits.toString());
+        journal.put("merge.aborted", Boolean.toString(isMergeAborted));
+        journal.put("merge.tip", jgit.resolve(mergeTo).name());
+        for (final Map.Entry<String, StageState> conflict: conflicts.entrySet()) {
+          journal.put("merge.conflict." + conflict.getKey(), conflict.getValue().name());
+        }
+        journal.put("merge.rejected", Integer.toString(rejectedMerges.size()));
+        int rejected = 0;
+        for (final Map.Entry<String, Map<String, StageState>> rejectedMerge: rejectedMerges.entrySet()) {
+          journal.put("merge.rejected." + rejected + ".name", rejectedMerge.getKey());
+          for (final Map.Entry<String, StageState> conflict: rejectedMerge.getValue().entrySet()) {
+            journal.put("merge.rejected." + rejected + ".conflict." + conflict.getKey(), conflict.getValue().name());
+          }
+          ++rejected;
+        }
+        journal.put("merge.runs", Integer.toString(mergeRuns.size()));
+        for (int idx = 0; idx < mergeRuns.size(); ++idx) {
+          journal.put("merge.run." + idx + ".from", mergeRuns.get(idx).getFrom());
+          journal.put("merge.run." + idx + ".fromRevision", mergeRuns.get(idx).getFromRevision());
+          for (final Map.Entry<String, StageState> conflict: mergeRuns.get(idx).getConflicts().entrySet()) {
+            journal.put("merge.run." + idx + ".conflict." + conflict.getKey(), conflict.getValue().name());
+          }
+        }
+        journal.complete("merge");
+      }
+      else {
+        doRestoreMerge();
+      }
+
+      if (!isMergeAborted && !isResumed("push")) {
+        // disable repository commit id hook
+        // Log.println("==> Disabling SVN repository commit id hook\n");
+        // setRepositoryCommitIdHook(false);
+
+        // pushing to remote, once for all merges
+        startStage("push");
+        Log.println("==> Pushing to remote [" + remote + "]\n");
+        if (config.getString("git.push.mode", false).equalsIgnoreCase("jgit")) {
+          doPush(Collections.singletonList(mergeTo), remote);
+        }
+        else {
+          doForkPush(mergeTo, remote);
+        }
+        journal.complete("push");
+
+        // enable repository commit id hook
+        // Log.println("==> Enabling SVN repository commit id hook\n");
+        // setRepositoryCommitIdHook(true);
+      }
+
+      // unlocking 'to' branch
+      startStage("unlock");
+      Log.println("==> Unlocking branch [" + mergeTo + "]\n");
+      setBranchCommitStatus(mergeTo, true);
+
+      if (queue != null) {
+        queue.complete(requests);
+      }
+
+      final boolean isMailResumed = isResumed("mail");
 
-    // pushing to remote
-    System.out.println("==> Pushing to remote [" + remote + "]\n");
-    doForkPush(mergeTo, remote);
+      // blaming on conflicting files, the blame archive is only needed by the mail
+      if (!isMergeAborted && !isMailResumed) {
+        startStage("blame");
+        Log.println("==> Blaming on conflicting files\n");
+        doBlame();
+      }
+
+      // recording conflict history
+      if (!isResumed("history")) {
+        startStage("history");
+        Log.println("==> Recording conflict history\n");
+        doRecordHistory(mergeTo);
+        journal.complete("history");
+      }
+
+      // sending summary mail, with the conflict risk matrix if it is ready in time
+      if (!isMailResumed) {
+        startStage("mail");
+        awaitRiskMatrix();
+        Log.println("==> Sending out summary mail\n");
+        doSendMail();
+        journal.complete("mail");
+      }
+
+      // maintaining repository while the merge no longer holds it
+      startStage("maintenance");
+      stopRiskMatrix();
+      Log.println("==> Maintaining git repository\n");
+      doMaintenance();
+
+      // waiting for queued mail to be delivered
+      startStage("deliver");
+      Log.println("==> Delivering queued mail\n");
+      doDeliverMail();
+
+      startStage(null);
 
-    // enable repository commit id hook
-    // System.out.println("==> Enabling SVN repository commit id hook\n");
-    // setRepositoryCommitIdHook(true);
+      journal.delete();
+    }
+    catch (Exception ex) {
+      failure = ex;
+
+      if (queue != null) {
+        // a failed release must not hide why the run failed, the claim times out eventually
+        try {
+          queue.release(requests);
+        }
+        catch (Exception releaseEx) {
+          Log.pretty("*", OUTPUT_WIDTH, "[WARN] Releasing queued merge requests failed", releaseEx.toString());
+        }
+      }
+
+      throw ex;
+    }
+    finally {
+      // releasing scratch directory, kept after a failure (until cleaned up by a later run) if configured
+      closeScratch((failure == null) || !config.getBoolean("scratch.keep.failed"));
 
-    // unlocking 'to' branch
-    System.out.println("==> Unlocking branch [" + mergeTo + "]\n");
-    setBranchCommitStatus(mergeTo, true);
+      // the conflict risk worker still reads the repository when the run failed or the mail did not wait for it
+      stopRiskMatrix();
 
-    // blaming on conflicting files
-    System.out.println("==> Blaming on conflicting files\n");
-    doBlame();
+      // requests out of attempts, put aside when claiming or by the release above
+      if (queue != null) {
+        logFailedRequests();
+      }
 
-    // sending summary mail
-    System.out.println("==> Sending out summary mail\n");
-    doSendMail();
+      // writing run report
+      Log.println("==> Writing run report\n");
+      doWriteReport(mergeFrom.toString(), mergeTo, remote, failure);
 
-    jgit.close();
+      jgit.close();
+    }
   }
 
   public void powerOff() {
-    System.out.println(StringUtils.prettyFormat("=", OUTPUT_WIDTH, "Git Merge Robot [ended]"));
+    Log.pretty("=", OUTPUT_WIDTH, "Git Merge Robot [ended]");
   }
 
   public static void main(String[] args) throws Exception {
-    final Robot robot = new Robot();
-    robot.powerOn();
-    robot.doWork();
-    robot.powerOff();
+    try {
+      final Robot robot = new Robot();
+      robot.powerOn();
+      robot.doWork();
+      robot.powerOff();
+    }
+    finally {
+      Log.close();
+    }
+  }
+
+  private void closeScratch(final boolean isDelete) {
+    for (final ScratchSpace space: new ScratchSpace[] {scratch, blameScratch}) {
+      if (space == null) {
+        continue;
+      }
+
+      try {
+        space.close(isDelete);
+      }
+      catch (Exception ex) {
+        Log.pretty("*", OUTPUT_WIDTH, "[WARN] Failed to release scratch directory [" + space.getDir() + "]", ex.toString());
+      }
+    }
+  }
+
+  // the window cache is process wide in JGit, so it has to be installed before the repository is opened
+  private void installWindowCache() {
+    final WindowCacheConfig cacheConfig = new WindowCacheConfig();
+
+    if (!config.getString("git.cache.packed.git.limit", true).isEmpty()) {
+      cacheConfig.setPackedGitLimit(config.getLong("git.cache.packed.git.limit"));
+    }
+
+    if (!config.getString("git.cache.packed.git.window.size", true).isEmpty()) {
+      cacheConfig.setPackedGitWindowSize(config.getInt("git.cache.packed.git.window.size"));
+    }
+
+    if (!config.getString("git.cache.packed.git.open.files", true).isEmpty()) {
+      cacheConfig.setPackedGitOpenFiles(config.getInt("git.cache.packed.git.open.files"));
+    }
+
+    if (!config.getString("git.cache.packed.git.mmap", true).isEmpty()) {
+      cacheConfig.setPackedGitMMAP(config.getBoolean("git.cache.packed.git.mmap"));
+    }
+
+    if (!config.getString("git.cache.delta.base.cache.limit", true).isEmpty()) {
+      cacheConfig.setDeltaBaseCacheLimit(config.getInt("git.cache.delta.base.cache.limit"));
+    }
+
+    if (!config.getString("git.cache.stream.file.threshold", true).isEmpty()) {
+      cacheConfig.setStreamFileThreshold(config.getInt("git.cache.stream.file.threshold"));
+    }
+
+    cacheConfig.install();
+    windowCacheConfig = cacheConfig;
+  }
+
+  // the SOAP client pulls in Axis, so it is only created once a branch is actually locked or unlocked
+  private Teamforge getTeamforge() throws Exception {
+    if ((teamforge == null) && config.contains("ctf.server.url") && config.contains("ctf.username") && config.contains("ctf.password")) {
+      teamforge = new Teamforge(config.getString("ctf.server.url", false), 60 * 1000);
+    }
+
+    return teamforge;
   }
 
   private void setBranchCommitStatus(final String branch, final boolean isCommitAllowed) throws Exception {
@@ -160,52 +612,138 @@ public final class Robot {
       throw new NullPointerException("argument 'branch' is null");
     }
 
-    if (props.containsKey(branch)) {
+    if (config.contains(branch)) {
+      final Teamforge teamforge = getTeamforge();
       if (teamforge == null) {
         throw new RuntimeException("[ERROR] failed to " + (!isCommitAllowed ? "lock" : "unlock") + " branch [" + branch + "]: teamforge may not be configured properly");
       }
 
-      teamforge.login(CommonUtils.getProperty(props, "ctf.username", false), CommonUtils.getProperty(props, "ctf.password", false));
+      teamforge.login(config.getString("ctf.username", false), config.getString("ctf.password", false));
 
-      final String[] packageIds = CommonUtils.getProperty(props, branch, false).split(",");
       final StringBuilder sb = new StringBuilder();
 
-      for (String packageId: packageIds) {
-        packageId = packageId.trim();
-        if (!packageId.isEmpty()) {
-          sb.append(teamforge.setBranchCommitStatus(packageId, isCommitAllowed)).append("\n");
-        }
+      for (final String packageId: config.getList(branch, false)) {
+        sb.append(teamforge.setBranchCommitStatus(packageId, isCommitAllowed)).append("\n");
       }
 
-      System.out.println(StringUtils.prettyFormat("-", OUTPUT_WIDTH, (!isCommitAllowed ? "Locked" : "Unlocked") + " branch [" + branch + "]", sb.toString().trim()));
+      Log.pretty("-", OUTPUT_WIDTH, (!isCommitAllowed ? "Locked" : "Unlocked") + " branch [" + branch + "]", sb.toString().trim());
       teamforge.logoff();
     }
     else {
-      System.out.println(StringUtils.prettyFormat("*", OUTPUT_WIDTH, "[WARN] " + (!isCommitAllowed ? "Locking" : "Unlocking") + " branch [" + branch + "] skipped"));
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] " + (!isCommitAllowed ? "Locking" : "Unlocking") + " branch [" + branch + "] skipped");
     }
   }
 
   @SuppressWarnings("unused")
   private void setRepositoryCommitIdHook(final boolean idRequiredOnCommit) throws Exception {
-    if (props.containsKey("svn.repo.id")) {
-      final String repositoryId = CommonUtils.getProperty(props, "svn.repo.id", false);
+    if (config.contains("svn.repo.id")) {
+      final String repositoryId = config.getString("svn.repo.id", false);
 
+      final Teamforge teamforge = getTeamforge();
       if (teamforge == null) {
         throw new RuntimeException("[ERROR] failed to set repository commit id hook [" + repositoryId + "]: teamforge may not be configured properly");
       }
 
-      teamforge.login(CommonUtils.getProperty(props, "ctf.username", false), CommonUtils.getProperty(props, "ctf.password", false));
+      teamforge.login(config.getString("ctf.username", false), config.getString("ctf.password", false));
 
       teamforge.setRepositoryCommitIdHook(repositoryId, idRequiredOnCommit);
 
-      System.out.println(StringUtils.prettyFormat("-", OUTPUT_WIDTH, "Turned [" + (idRequiredOnCommit ? "on" : "off") + "] commit id hook for repository [" + repositoryId + "]"));
+      Log.pretty("-", OUTPUT_WIDTH, "Turned [" + (idRequiredOnCommit ? "on" : "off") + "] commit id hook for repository [" + repositoryId + "]");
       teamforge.logoff();
     }
     else {
-      System.out.println(StringUtils.prettyFormat("*", OUTPUT_WIDTH, "[WARN] set repository commit id hook skipped"));
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] set repository commit id hook skipped");
     }
   }
 
+  private void startRiskMatrix(final String remote) throws Exception {
+    if (config.getString("risk.dir", true).isEmpty()) {
+      return;
+    }
+
+    final Map<String, ObjectId> tips = new LinkedHashMap<>();
+    for (final String branch: config.getList("risk.branches", false)) {
+      try {
+        tips.put(branch, jgit.resolve(remote + "/" + branch));
+      }
+      catch (RuntimeException ex) {
+        Log.pretty("*", OUTPUT_WIDTH, "[WARN] Conflict risk skips branch [" + branch + "], not found on remote [" + remote + "]");
+      }
+    }
+
+    if (tips.size() < 2) {
+      return;
+    }
+
+    riskMatrix = new RiskMatrix(new File(config.getString("risk.dir", false)));
+
+    riskWorker = new Thread("risk-matrix") {
+      @Override
+      public void run() {
+        final long started = System.currentTimeMillis();
+
+        try {
+          riskEntries = riskMatrix.update(jgit, tips);
+        }
+        catch (Exception ex) {
+          riskError = ex;
+        }
+        finally {
+          riskMillis = System.currentTimeMillis() - started;
+        }
+      }
+    };
+
+    riskWorker.setDaemon(true);
+    riskWorker.start();
+  }
+
+  // the worker reads through the same repository, it must be done before maintenance rewrites packs or the
+  // repository is closed; never interrupted, an interrupt would close pack file channels shared with this thread
+  private void stopRiskMatrix() {
+    if ((riskWorker == null) || !riskWorker.isAlive()) {
+      return;
+    }
+
+    riskMatrix.cancel();
+
+    try {
+      riskWorker.join();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // falls back to the matrix stored by an earlier run when this one is not done (or failed)
+  private void awaitRiskMatrix() throws Exception {
+    if (riskWorker == null) {
+      return;
+    }
+
+    riskWorker.join(config.getLong("risk.wait.seconds") * 1000);
+
+    if (riskWorker.isAlive()) {
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Conflict risk still being computed, using the last stored matrix");
+      riskEntries = riskMatrix.list();
+      return;
+    }
+
+    if (riskError != null) {
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Conflict risk failed, using the last stored matrix", riskError.toString());
+      riskEntries = riskMatrix.list();
+      return;
+    }
+
+    final StringBuilder sb = new StringBuilder();
+    for (final RiskMatrix.Entry entry: riskEntries) {
+      sb.append(String.format("%-40s %6d overlapping, %6d/%-6d changed", entry.getFrom() + " <> " + entry.getTo(),
+          entry.getOverlap(), entry.getChangedFrom(), entry.getChangedTo())).append("\n");
+    }
+
+    Log.pretty("-", OUTPUT_WIDTH, "Computed conflict risk [" + riskMillis + " ms]", sb.toString().trim());
+  }
+
   private void doFetch(final String remote) throws Exception {
     if (remote == null) {
       throw new NullPointerException("argument 'remote' is null");
@@ -213,14 +751,12 @@ public final class Robot {
 
     String username = null;
     String password = null;
-    if (props.containsKey("git.username") && props.containsKey("git.password")) {
-      username = CommonUtils.getProperty(props, "git.username", false);
-      password = CommonUtils.getProperty(props, "git.password", false);
+    if (config.contains("git.username") && config.contains("git.password")) {
+      username = config.getString("git.username", false);
+      password = config.getString("git.password", false);
     }
 
-    final String[] refSpecs = CommonUtils.getProperty(props, "git.fetch.refspecs", false).split(",");
-
-    final FetchResult fetchResult = jgit.fetch(remote, Arrays.asList(refSpecs), username, password);
+    fetchResult = jgit.fetch(remote, config.getList("git.fetch.refspecs", false), username, password);
 
     final StringBuilder sb = new StringBuilder();
 
@@ -235,10 +771,27 @@ public final class Robot {
       sb.append("[Already up to date] nothing to do").append("\n");
     }
 
-    System.out.println(StringUtils.prettyFormat("+", OUTPUT_WIDTH, "Fetched from remote [" + remote + "]", sb.toString().trim()));
+    Log.pretty("+", OUTPUT_WIDTH, "Fetched from remote [" + remote + "]", sb.toString().trim());
+  }
+
+  private void doCheckMaintenance() throws Exception {
+    final String mode = config.getString("git.maintenance.mode", false);
+    if (mode.equalsIgnoreCase("off")) {
+      return;
+    }
+
+    repoStatistics = jgit.getStatistics();
+
+    final long maxPacks = config.getLong("git.maintenance.max.packs");
+    final long maxLooseObjects = config.getLong("git.maintenance.max.loose.objects");
+
+    isMaintenanceDue = (repoStatistics.numberOfPackFiles > maxPacks) || (repoStatistics.numberOfLooseObjects > maxLooseObjects);
+
+    Log.pretty("-", OUTPUT_WIDTH, "Repository statistics" + (isMaintenanceDue ? " [maintenance due]" : ""),
+        String.format("%d pack file(s), %d loose object(s)", repoStatistics.numberOfPackFiles, repoStatistics.numberOfLooseObjects));
   }
 
-  private void doParse(final String expression, final String remote) throws Exception {
+  private Map<String, String> doParse(final String expression, final String remote) throws Exception {
     if (expression == null) {
       throw new NullPointerException("argument 'expression' is null");
     }
@@ -249,115 +802,248 @@ public final class Robot {
 
     final Map<String, String> map = jgit.parse(expression, remote);
 
-    mergeFromBranch = map.get("mergeFromBranch");
-    mergeFromObjectId = map.get("mergeFromObjectId");
-    mergeFromRevision = map.get("mergeFromRevision");
+    final String branch = map.get("mergeFromBranch");
+    final String objectId = map.get("mergeFromObjectId");
+    final String revision = map.get("mergeFromRevision");
 
     final StringBuilder sb = new StringBuilder();
 
-    if (mergeFromObjectId == null) {
-      sb.append("Branch [" + mergeFromBranch + " (" + mergeFromRevision + ")] will be merged").append("\n");
+    if (objectId == null) {
+      sb.append("Branch [" + branch + " (" + revision + ")] will be merged").append("\n");
     }
     else {
-      sb.append("Commit [" + mergeFromObjectId + " (" + mergeFromRevision + ")] will be merged").append("\n\n");
-      sb.append(jgit.logWithNotes(jgit.log(jgit.resolve(mergeFromObjectId), 1).iterator().next())).append("\n");
+      sb.append("Commit [" + objectId + " (" + revision + ")] will be merged").append("\n\n");
+      sb.append(jgit.logWithNotes(jgit.log(jgit.resolve(objectId), 1).iterator().next())).append("\n");
     }
 
-    System.out.println(StringUtils.prettyFormat("-", OUTPUT_WIDTH, "Parsed 'mergeFrom' expression", sb.toString().trim()));
+    Log.pretty("-", OUTPUT_WIDTH, "Parsed 'mergeFrom' expression", sb.toString().trim());
+
+    return map;
   }
 
-  private void doUpdate(final String branch, final String remote) throws Exception {
-    if (branch == null) {
-      throw new NullPointerException("argument 'branch' is null");
+  // drops the merges whose source is reachable from the remote 'mergeTo' (all of them for a no-op run)
+  private void doCheckMerged(final List<Map<String, String>> merges, final String mergeTo, final String remote) throws Exception {
+    if (merges == null) {
+      throw new NullPointerException("argument 'merges' is null");
+    }
+
+    if (mergeTo == null) {
+      throw new NullPointerException("argument 'mergeTo' is null");
     }
 
     if (remote == null) {
       throw new NullPointerException("argument 'remote' is null");
     }
 
-    System.out.println(">> Updating local branch [" + branch + "]\n");
-    final RevCommit newHead = jgit.log(jgit.update(branch, remote), 1).iterator().next();
+    final ObjectId target = jgit.resolve(remote + "/" + mergeTo);
+    final StringBuilder sb = new StringBuilder();
 
-    System.out.println(StringUtils.prettyFormat("-", OUTPUT_WIDTH, "Branch [" + branch + "] updated", jgit.logWithNotes(newHead).trim()));
-  }
+    for (final Iterator<Map<String, String>> iter = merges.iterator(); iter.hasNext();) {
+      final Map<String, String> merge = iter.next();
+      final String objectId = merge.get("mergeFromObjectId");
 
-  // Until Bug 471845 is fixed, using JGit for merge should be avoided
-  // URL: https://bugs.eclipse.org/bugs/show_bug.cgi?id=471845
-  @SuppressWarnings("unused")
-  private Map<String, int[][]> doMerge(final String from, final String to, final String message) throws Exception {
-    if (from == null) {
-      throw new NullPointerException("argument 'from' is null");
-    }
+      final ObjectId source = (objectId == null) ? jgit.resolve(remote + "/" + merge.get("mergeFromBranch")) : ObjectId.fromString(objectId);
+      if (!jgit.isAncestor(source, target)) {
+        continue;
+      }
 
-    if (to == null) {
-      throw new NullPointerException("argument 'to' is null");
+      final String name = (objectId == null) ? ("Branch [" + merge.get("mergeFromBranch") + "]") : ("Commit [" + objectId + "]");
+      final String entry = name + " (" + merge.get("mergeFromRevision") + ")";
+      alreadyMerged.add(entry);
+      sb.append(entry).append(" is already in [" + mergeTo + "]").append("\n");
+
+      iter.remove();
     }
 
-    if (message == null) {
-      throw new NullPointerException("argument 'message' is null");
+    if (sb.length() == 0) {
+      return;
     }
 
-    final MergeResult resMerge = jgit.merge(from, to, message);
-    final MergeStatus stsMerge = resMerge.getMergeStatus();
+    Log.pretty(merges.isEmpty() ? "+" : "-", OUTPUT_WIDTH, merges.isEmpty() ? "Nothing to merge" : "Already merged, skipped", sb.toString().trim());
+  }
 
-    String base = ">>> No common merge base";
-    if (resMerge.getBase() != null) {
-      base = ">>> Merge Base:\n\n" + jgit.logWithNotes(jgit.log(resMerge.getBase(), 1).iterator().next());
+  // fetches 'branch' alone, it may have moved between the fetch and the lock
+  private void doRefresh(final String branch, final String remote) throws Exception {
+    if (branch == null) {
+      throw new NullPointerException("argument 'branch' is null");
     }
 
-    Map<String, int[][]> conflicts = null;
-
-    final StringBuilder sb = new StringBuilder();
+    if (remote == null) {
+      throw new NullPointerException("argument 'remote' is null");
+    }
 
-    // ABORTED, CHECKOUT_CONFLICT, CONFLICTING, FAILED, NOT_SUPPORTED
-    if (!stsMerge.isSuccessful()) {
-      if (stsMerge == MergeStatus.CHECKOUT_CONFLICT) {
-        final List<String> checkoutConflicts = resMerge.getCheckoutConflicts();
+    String username = null;
+    String password = null;
+    if (config.contains("git.username") && config.contains("git.password")) {
+      username = config.getString("git.username", false);
+      password = config.getString("git.password", false);
+    }
 
-        if (checkoutConflicts != null) {
-          for (final String checkoutConflict: checkoutConflicts) {
-            sb.append(checkoutConflict).append("\n");
-          }
-        }
-      }
+    final ObjectId oldTip = jgit.resolve(remote + "/" + branch);
 
-      if (stsMerge == MergeStatus.CONFLICTING) {
-        conflicts = resMerge.getConflicts();
-      }
+    jgit.fetch(remote, Collections.singletonList("+" + Constants.R_HEADS + branch + ":" + Constants.R_REMOTES + remote + "/" + branch), username, password);
 
-      if (stsMerge == MergeStatus.FAILED) {
-        final Map<String, MergeFailureReason> failingPaths = resMerge.getFailingPaths();
+    final ObjectId newTip = jgit.resolve(remote + "/" + branch);
+    if (!newTip.equals(oldTip)) {
+      Log.pretty("-", OUTPUT_WIDTH, "Branch [" + branch + "] moved on remote [" + remote + "] before locking",
+          oldTip.abbreviate(7).name() + ".." + newTip.abbreviate(7).name());
+    }
+  }
 
-        if (failingPaths != null) {
-          for (final Map.Entry<String, MergeFailureReason> failingPath: failingPaths.entrySet()) {
-            sb.append(failingPath.getKey()).append(": ").append(failingPath.getValue().toString()).append("\n");
-          }
-        }
+  private static void sortByRevision(final List<Map<String, String>> merges) {
+    Collections.sort(merges, new Comparator<Map<String, String>>() {
+      @Override
+      public int compare(final Map<String, String> lhs, final Map<String, String> rhs) {
+        final long lhsRevision = toRevisionNumber(lhs.get("mergeFromRevision"));
+        final long rhsRevision = toRevisionNumber(rhs.get("mergeFromRevision"));
+        return (lhsRevision < rhsRevision) ? -1 : ((lhsRevision == rhsRevision) ? 0 : 1);
       }
+    });
+  }
 
-      if (stsMerge != MergeStatus.CONFLICTING) {
-        System.out.println(StringUtils.prettyFormat("*", OUTPUT_WIDTH, "Merge FAILURE [" + stsMerge.toString() + "]", sb.toString().trim(), base, resMerge.toString()));
-        throw new RuntimeException("[ERROR] failed to merge [" + from + "] to [" + to + "] [" + stsMerge.toString() + "]");
-      }
+  private static long toRevisionNumber(final String revision) {
+    if ((revision == null) || (revision.length() < 2)) {
+      return Long.MAX_VALUE;
     }
 
-    jgit.add(null, false);
-
-    String name = null;
-    String email = null;
-    if (props.containsKey("git.username") && props.containsKey("git.email")) {
-      name = CommonUtils.getProperty(props, "git.username", false);
-      email = CommonUtils.getProperty(props, "git.email", false);
+    try {
+      return Long.parseLong(revision.substring(1));
     }
+    catch (NumberFormatException ex) {
+      return Long.MAX_VALUE;
+    }
+  }
 
-    final String newHead = ">>> Merge Result:\n\n" + jgit.logWithNotes(jgit.commit(JGit.getPersonIdent(name, email), JGit.getPersonIdent(name, email), jgit.readMergeCommitMsg()));
+  private boolean isResumed(final String stage) {
+    if (!journal.isDone(stage)) {
+      return false;
+    }
 
-    System.out.println(StringUtils.prettyFormat("+", OUTPUT_WIDTH, "Merge SUCCESS [" + stsMerge.toString() + "]", base, newHead, resMerge.toString()));
+    Log.println("==> Skipping stage [" + stage + "], completed by a previous run\n");
+    resumedStages.add(stage);
+    return true;
+  }
 
-    return conflicts;
+  // a journal only applies while 'mergeTo' is still where the failed run left it
+  private void doCheckJournal(final String mergeTo) throws Exception {
+    if (mergeTo == null) {
+      throw new NullPointerException("argument 'mergeTo' is null");
+    }
+
+    if (!journal.isResumed()) {
+      return;
+    }
+
+    // a completed merge is restored from its per-merge runs, a journal without them cannot be resumed
+    if (journal.isDone("merge") && ((journal.get("merge.runs") == null) || (journal.get("merge.rejected") == null))) {
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Journal discarded, the merge stage is incomplete", "missing [merge.runs] or [merge.rejected]");
+      journal.reset();
+      return;
+    }
+
+    final String expectedTip = journal.isDone("merge") ? journal.get("merge.tip") : journal.get("update.mergeToTip");
+    final ObjectId actualTip = jgit.resolve(mergeTo);
+
+    if ((expectedTip != null) && ((actualTip == null) || !expectedTip.equals(actualTip.name()))) {
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Journal discarded, branch [" + mergeTo + "] has moved since the previous run",
+          "expected [" + expectedTip + "], found [" + ((actualTip == null) ? "none" : actualTip.name()) + "]");
+      journal.reset();
+      return;
+    }
+
+    Log.pretty("-", OUTPUT_WIDTH, "Resuming previous run", "completed stages: " + journal.getStages());
+  }
+
+  private void doRestoreMerge() throws Exception {
+    mergeFromBranch = journal.get("merge.mergeFromBranch");
+    mergeFromObjectId = journal.get("merge.mergeFromObjectId");
+    mergeFromRevision = journal.get("merge.mergeFromRevision");
+    isMergeAborted = Boolean.parseBoolean(journal.get("merge.aborted"));
+
+    for (final Map.Entry<String, String> conflict: journal.getAll("merge.conflict.").entrySet()) {
+      conflicts.put(conflict.getKey(), StageState.valueOf(conflict.getValue()));
+    }
+
+    final int runs = Integer.parseInt(journal.get("merge.runs"));
+    for (int idx = 0; idx < runs; ++idx) {
+      final Map<String, StageState> runConflicts = new TreeMap<>();
+      for (final Map.Entry<String, String> conflict: journal.getAll("merge.run." + idx + ".conflict.").entrySet()) {
+        runConflicts.put(conflict.getKey(), StageState.valueOf(conflict.getValue()));
+      }
+
+      mergeRuns.add(new ConflictHistory.Run(startedMs, journal.get("merge.run." + idx + ".from"), CommonUtils.getSystemProperty("mergeTo", false),
+          journal.get("merge.run." + idx + ".fromRevision"), mergeToRevision, runConflicts));
+    }
+
+    final int rejected = Integer.parseInt(journal.get("merge.rejected"));
+    for (int idx = 0; idx < rejected; ++idx) {
+      final Map<String, StageState> rejectedConflicts = new TreeMap<>();
+      for (final Map.Entry<String, String> conflict: journal.getAll("merge.rejected." + idx + ".conflict.").entrySet()) {
+        rejectedConflicts.put(conflict.getKey(), StageState.valueOf(conflict.getValue()));
+      }
+
+      rejectedMerges.put(journal.get("merge.rejected." + idx + ".name"), rejectedConflicts);
+    }
+
+    final Set<ObjectId> mergeCommits = toObjectIds(journal.get("merge.commits"));
+    for (final ObjectId objectId: mergeCommits) {
+      mergeCommit = jgit.log(objectId, 1).iterator().next();
+    }
+
+    if (!isMergeAborted) {
+      Log.println("==> Listing merged commits\n");
+      doChangelog(ObjectId.fromString(journal.get("update.mergeToTip")), ObjectId.fromString(journal.get("merge.tip")), mergeCommits);
+    }
+  }
+
+  private void doEnqueue(final String mergeTo) throws Exception {
+    if (mergeTo == null) {
+      throw new NullPointerException("argument 'mergeTo' is null");
+    }
+
+    final String mergeFrom = CommonUtils.getSystemProperty("mergeFrom", false);
+    final String message = CommonUtils.getSystemProperty("message", false);
+    final String mailTo = CommonUtils.getSystemProperty("mailTo", true);
+
+    final MergeQueue queue = new MergeQueue(new File(config.getString("batch.queue.dir", false)), config.getInt("batch.max.attempts"));
+    final StringBuilder sb = new StringBuilder();
+
+    for (String expression: mergeFrom.split(",")) {
+      expression = expression.trim();
+      if (expression.isEmpty()) {
+        continue;
+      }
+
+      // only single revision merges can be coalesced, whole branches are merged right away
+      if (!Expression.parse(expression).isRevision()) {
+        throw new RuntimeException("[ERROR] only single revision expressions (branch:svn:rev, branch:git:rev) can be queued [" + expression + "]");
+      }
+
+      sb.append(queue.enqueue(new MergeRequest(expression, mergeTo, message, mailTo, System.currentTimeMillis()))).append("\n");
+    }
+
+    Log.pretty("-", OUTPUT_WIDTH, "Queued merge request(s) for [" + mergeTo + "]", sb.toString().trim());
+  }
+
+  private void doUpdate(final String branch, final String remote) throws Exception {
+    if (branch == null) {
+      throw new NullPointerException("argument 'branch' is null");
+    }
+
+    if (remote == null) {
+      throw new NullPointerException("argument 'remote' is null");
+    }
+
+    Log.println(">> Updating local branch [" + branch + "]\n");
+    final RevCommit newHead = jgit.log(jgit.update(branch, remote), 1).iterator().next();
+
+    Log.pretty("-", OUTPUT_WIDTH, "Branch [" + branch + "] updated", jgit.logWithNotes(newHead).trim());
   }
 
-  private void doForkMerge(final String from, final String to, final String message) throws Exception {
+  // Until Bug 471845 is fixed, using JGit for merge should be avoided
+  // URL: https://bugs.eclipse.org/bugs/show_bug.cgi?id=471845
+  @SuppressWarnings("unused")
+  private Map<String, int[][]> doMerge(final String from, final String to, final String message) throws Exception {
     if (from == null) {
       throw new NullPointerException("argument 'from' is null");
     }
@@ -370,290 +1056,386 @@ public final class Robot {
       throw new NullPointerException("argument 'message' is null");
     }
 
-    final CheckoutResult resCheckout = jgit.checkout(to);
-    if (resCheckout.getStatus() != CheckoutResult.Status.OK) {
-      throw new RuntimeException("[ERROR] failed to checkout branch [" + to + "] [" + resCheckout.getStatus() + "]");
-    }
-    else {
-      System.out.println(">> Checked out branch [" + to + "] ...\n");
+    final MergeResult resMerge = jgit.merge(from, to, message);
+    final MergeStatus stsMerge = resMerge.getMergeStatus();
+
+    String base = ">>> No common merge base";
+    if (resMerge.getBase() != null) {
+      base = ">>> Merge Base:\n\n" + jgit.logWithNotes(jgit.log(resMerge.getBase(), 1).iterator().next());
     }
 
-    System.out.println(">> Starting the merge, please be patient ...\n");
+    Map<String, int[][]> conflicts = null;
 
-    final StoredConfig config = jgit.getConfig();
-    config.setInt("merge", null, "verbosity", 0);
-    jgit.saveConfig(config);
+    final StringBuilder sb = new StringBuilder();
 
-    String cmd = "git merge -s recursive -Xignore-all-space --no-ff --no-commit " + from;
-    Process process = Runtime.getRuntime().exec(cmd, null, jgit.getWorkTree());
+    // ABORTED, CHECKOUT_CONFLICT, CONFLICTING, FAILED, NOT_SUPPORTED
+    if (!stsMerge.isSuccessful()) {
+      if (stsMerge == MergeStatus.CHECKOUT_CONFLICT) {
+        final List<String> checkoutConflicts = resMerge.getCheckoutConflicts();
 
-    final InputStream prOut = process.getInputStream();
-    final Thread stdoutDrainer = new Thread() {
-      @Override
-      public void run()
-      {
-        try
-        {
-          int ch;
-          do
-          {
-            ch = prOut.read();
-            if (ch >= 0) {
-              System.out.print((char) ch);
-            }
+        if (checkoutConflicts != null) {
+          for (final String checkoutConflict: checkoutConflicts) {
+            sb.append(checkoutConflict).append("\n");
           }
-          while (ch >= 0);
-        }
-        catch (IOException ex)
-        {
-          // ex.printStackTrace();
         }
       }
-    };
 
-    final InputStream prErr = process.getErrorStream();
-    final Thread stderrDrainer = new Thread() {
-      @Override
-      public void run()
-      {
-        try
-        {
-          int ch;
-          do
-          {
-            ch = prErr.read();
-            if (ch >= 0) {
-              prErr.skip(prErr.available());
-            }
+      if (stsMerge == MergeStatus.CONFLICTING) {
+        conflicts = resMerge.getConflicts();
+      }
+
+      if (stsMerge == MergeStatus.FAILED) {
+        final Map<String, MergeFailureReason> failingPaths = resMerge.getFailingPaths();
+
+        if (failingPaths != null) {
+          for (final Map.Entry<String, MergeFailureReason> failingPath: failingPaths.entrySet()) {
+            sb.append(failingPath.getKey()).append(": ").append(failingPath.getValue().toString()).append("\n");
           }
-          while (ch >= 0);
-        }
-        catch (IOException ex)
-        {
-          // ex.printStackTrace();
         }
       }
-    };
 
-    stdoutDrainer.start();
-    stderrDrainer.start();
+      if (stsMerge != MergeStatus.CONFLICTING) {
+        Log.pretty("*", OUTPUT_WIDTH, "Merge FAILURE [" + stsMerge.toString() + "]", sb.toString().trim(), base, resMerge.toString());
+        throw new RuntimeException("[ERROR] failed to merge [" + from + "] to [" + to + "] [" + stsMerge.toString() + "]");
+      }
+    }
 
-    int retValue = process.waitFor();
+    jgit.add(null, false);
 
-    try {
-      prOut.close();
-      prErr.close();
+    String name = null;
+    String email = null;
+    if (config.contains("git.username") && config.contains("git.email")) {
+      name = config.getString("git.username", false);
+      email = config.getString("git.email", false);
     }
-    catch (IOException ex) {
-      // ex.printStackTrace();
+
+    final String newHead = ">>> Merge Result:\n\n" + jgit.logWithNotes(jgit.commit(JGit.getPersonIdent(name, email), JGit.getPersonIdent(name, email), jgit.readMergeCommitMsg()));
+
+    Log.pretty("+", OUTPUT_WIDTH, "Merge SUCCESS [" + stsMerge.toString() + "]", base, newHead, resMerge.toString());
+
+    return conflicts;
+  }
+
+  // returns false when the merge produced more conflicts than allowed and was left out, 'to' is unchanged then
+  private boolean doForkMerge(final String from, final String to, final String message) throws Exception {
+    if (from == null) {
+      throw new NullPointerException("argument 'from' is null");
     }
 
-    System.out.println();
+    if (to == null) {
+      throw new NullPointerException("argument 'to' is null");
+    }
+
+    if (message == null) {
+      throw new NullPointerException("argument 'message' is null");
+    }
+
+    final CheckoutResult resCheckout = jgit.checkout(to);
+    if (resCheckout.getStatus() != CheckoutResult.Status.OK) {
+      throw new RuntimeException("[ERROR] failed to checkout branch [" + to + "] [" + resCheckout.getStatus() + "]");
+    }
+    else {
+      Log.println(">> Checked out branch [" + to + "] ...\n");
+    }
+
+    final ObjectId toTip = jgit.resolve(to);
+    final ObjectId fromTip = jgit.resolve(from);
+    final int maxConflicts = config.getInt("git.merge.max.conflicts");
+
+    lastMergeConflicts.clear();
 
     String commitMessage = message.replaceAll("\\%from", mergeFromBranch).replaceAll("\\%to", to).replaceAll("\\%rev", mergeFromRevision);
 
-    if (retValue == 0) {
-      System.out.println(StringUtils.prettyFormat("+", OUTPUT_WIDTH, "Merge Completed [Success]"));
+    // the same pair of commits merged with the same options always gives the same result
+    MergeCache.Entry cached = (mergeCache == null) ? null : mergeCache.get(toTip, fromTip, MERGE_OPTIONS);
+    if ((cached != null) && (cached.getTree() == null) && ((maxConflicts <= 0) || (cached.getConflicts().size() <= maxConflicts))) {
+      cached = null;
+    }
+    if ((cached != null) && (cached.getTree() != null) && !jgit.hasObject(cached.getTree())) {
+      cached = null;
     }
-    else if (retValue == 1) {
-      System.out.println("==> Running git status to get conflict list\n");
-      final Status status = jgit.status();
 
-      conflicts.putAll(status.getConflictingStageState());
+    if (cached != null) {
+      Log.println(">> Reusing cached merge result for [" + toTip.abbreviate(7).name() + "] + [" + fromTip.abbreviate(7).name() + "] ...\n");
 
-      final StringBuilder sb = new StringBuilder();
+      lastMergeConflicts.putAll(cached.getConflicts());
+      final String conflictList = formatConflicts(cached.getConflicts());
 
-      for (final Map.Entry<String, StageState> conflict: conflicts.entrySet()) {
-        sb.append(String.format("%-20s%s", conflict.getValue().toString(), conflict.getKey())).append("\n");
+      // the limit applies to the cached result as it is now, it may have been lowered since the entry was written
+      if ((cached.getTree() == null) || ((maxConflicts > 0) && (cached.getConflicts().size() > maxConflicts))) {
+        Log.pretty("*", OUTPUT_WIDTH, "Merge Aborted [" + cached.getConflicts().size() + " conflicts, limit " + maxConflicts + "] [cached]", conflictList);
+
+        return false;
       }
 
-      commitMessage = new StringBuilder().append(commitMessage).append("\n\n").append("Conflicts:\n\n").append(sb.toString().trim()).toString();
-      System.out.println(StringUtils.prettyFormat("+", OUTPUT_WIDTH, "Merge Completed [Conflicting]", sb.toString().trim()));
+      if (!cached.getConflicts().isEmpty()) {
+        commitMessage = new StringBuilder().append(commitMessage).append("\n\n").append("Conflicts:\n\n").append(conflictList).toString();
+        Log.pretty("+", OUTPUT_WIDTH, "Merge Completed [Conflicting] [cached]", conflictList);
+      }
+      else {
+        Log.pretty("+", OUTPUT_WIDTH, "Merge Completed [Success] [cached]");
+      }
+
+      Log.println("==> Committing the cached merge result\n");
+      mergeCommit = jgit.commit(cached.getTree(), Arrays.asList(toTip, fromTip), getCommitIdent(), getCommitIdent(), commitMessage);
+      jgit.reset(mergeCommit);
     }
     else {
-      throw new RuntimeException("[ERROR] failed to merge [" + from + "] to [" + to + "] [Unexpected errors occurred (" + retValue + ")]");
-    }
+      Log.println(">> Starting the merge, please be patient ...\n");
 
-    config.unset("merge", null, "verbosity");
-    jgit.saveConfig(config);
+      final StoredConfig config = jgit.getConfig();
+      config.setInt("merge", null, "verbosity", 0);
+      jgit.saveConfig(config);
 
-    System.out.println("==> Adding uncommitted changes to the index\n");
-    cmd = "git add .";
-    process = Runtime.getRuntime().exec(cmd, null, jgit.getWorkTree());
-    retValue = process.waitFor();
+      final List<String> cmd = new ArrayList<>(Arrays.asList("git", "merge"));
+      cmd.addAll(Arrays.asList(MERGE_OPTIONS.split(" ")));
+      cmd.addAll(Arrays.asList("--no-commit", from));
 
-    if (retValue != 0) {
-      throw new RuntimeException("[ERROR] failed to add uncommitted changes to index");
-    }
+      int retValue = processRunner.run(true, false, cmd.toArray(new String[cmd.size()]));
 
-    System.out.println("==> Committing the merge changes\n");
-    String name = null;
-    String email = null;
-    if (props.containsKey("git.username") && props.containsKey("git.email")) {
-      name = CommonUtils.getProperty(props, "git.username", false);
-      email = CommonUtils.getProperty(props, "git.email", false);
+      Log.println("");
+
+      final Map<String, StageState> mergeConflicts = new TreeMap<>();
+
+      if (retValue == 0) {
+        Log.pretty("+", OUTPUT_WIDTH, "Merge Completed [Success]");
+      }
+      else if (retValue == 1) {
+        Log.println("==> Reading unmerged index entries to get conflict list\n");
+        mergeConflicts.putAll(jgit.getConflicts());
+        lastMergeConflicts.putAll(mergeConflicts);
+
+        final String conflictList = formatConflicts(mergeConflicts);
+
+        if ((maxConflicts > 0) && (mergeConflicts.size() > maxConflicts)) {
+          Log.pretty("*", OUTPUT_WIDTH, "Merge Aborted [" + mergeConflicts.size() + " conflicts, limit " + maxConflicts + "]", conflictList);
+
+          config.unset("merge", null, "verbosity");
+          jgit.saveConfig(config);
+
+          processRunner.runChecked(true, true, "git", "merge", "--abort");
+
+          if (mergeCache != null) {
+            mergeCache.put(toTip, fromTip, MERGE_OPTIONS, null, mergeConflicts);
+          }
+
+          return false;
+        }
+
+        commitMessage = new StringBuilder().append(commitMessage).append("\n\n").append("Conflicts:\n\n").append(conflictList).toString();
+        Log.pretty("+", OUTPUT_WIDTH, "Merge Completed [Conflicting]", conflictList);
+      }
+      else {
+        throw new RuntimeException("[ERROR] failed to merge [" + from + "] to [" + to + "] [Unexpected errors occurred (" + retValue + ")]");
+      }
+
+      config.unset("merge", null, "verbosity");
+      jgit.saveConfig(config);
+
+      Log.println("==> Adding uncommitted changes to the index\n");
+      retValue = processRunner.run(false, false, "git", "add", ".");
+
+      if (retValue != 0) {
+        throw new RuntimeException("[ERROR] failed to add uncommitted changes to index");
+      }
+
+      Log.println("==> Committing the merge changes\n");
+      mergeCommit = jgit.commit(getCommitIdent(), getCommitIdent(), commitMessage);
+
+      if (mergeCache != null) {
+        mergeCache.put(toTip, fromTip, MERGE_OPTIONS, mergeCommit.getTree(), mergeConflicts);
+      }
     }
 
     final String newHead = new StringBuilder().append(">> Merge Result (the merge commit):\n\n")
-        .append(jgit.logWithNotes(jgit.commit(JGit.getPersonIdent(name, email), JGit.getPersonIdent(name, email), commitMessage))).toString();
+        .append(jgit.logWithNotes(mergeCommit)).toString();
 
-    System.out.println(StringUtils.prettyFormat("-", OUTPUT_WIDTH, newHead.trim()));
+    Log.pretty("-", OUTPUT_WIDTH, newHead.trim());
 
-    System.out.println("==> Checking git repository cleanliness\n");
+    Log.println("==> Checking git repository cleanliness\n");
     if (!jgit.isClean()) {
       throw new RuntimeException("[ERROR] after committing all merge changes, the repository should back to clean");
     }
+
+    return true;
   }
 
-  @SuppressWarnings("unused")
-  private void doPush(final String branch, final String remote) throws Exception {
-    if (branch == null) {
-      throw new NullPointerException("argument 'branch' is null");
+  private PersonIdent getCommitIdent() {
+    if (config.contains("git.username") && config.contains("git.email")) {
+      return JGit.getPersonIdent(config.getString("git.username", false), config.getString("git.email", false));
     }
 
-    if (remote == null) {
-      throw new NullPointerException("argument 'remote' is null");
+    return null;
+  }
+
+  private static String formatConflicts(final Map<String, StageState> conflicts) {
+    final StringBuilder sb = new StringBuilder();
+
+    for (final Map.Entry<String, StageState> conflict: conflicts.entrySet()) {
+      sb.append(String.format("%-20s%s", conflict.getValue().toString(), conflict.getKey())).append("\n");
     }
 
-    String username = null;
-    String password = null;
-    if (props.containsKey("git.username") && props.containsKey("git.password")) {
-      username = CommonUtils.getProperty(props, "git.username", false);
-      password = CommonUtils.getProperty(props, "git.password", false);
+    return sb.toString().trim();
+  }
+
+  // lists what the merges of a session brought into 'tip': every commit new since 'preMergeTip' except the
+  // session's own merge commits, newest first; the revision range spans all merges
+  private void doChangelog(final ObjectId preMergeTip, final ObjectId tip, final Set<ObjectId> mergeCommits) throws Exception {
+    if (preMergeTip == null) {
+      throw new NullPointerException("argument 'preMergeTip' is null");
     }
 
-    final StringBuilder sb = new StringBuilder();
+    if (tip == null) {
+      throw new NullPointerException("argument 'tip' is null");
+    }
 
-    final Iterable<PushResult> resPushes = jgit.push(branch, remote, username, password);
-    for (final PushResult resPush: resPushes) {
-      final Collection<RemoteRefUpdate> remoteUpdates = resPush.getRemoteUpdates();
+    if (mergeCommits == null) {
+      throw new NullPointerException("argument 'mergeCommits' is null");
+    }
+
+    changelog.clear();
+    changelogTotal = 0;
+    changelogFirstRevision = null;
+    changelogLastRevision = null;
+
+    if (tip.equals(preMergeTip)) {
+      return;
+    }
+
+    final int limit = config.getInt("mail.changelog.limit");
+
+    // only the first 'limit' commits (plus the merge commits passed on the way) get their body read, the rest
+    // are streamed through with headers only for counting and revision range
+    try (final CommitNoteWalk walk = jgit.logWithNotes(tip, preMergeTip, limit + mergeCommits.size())) {
+      for (final CommitNoteWalk.Entry entry: walk) {
+        if (mergeCommits.contains(entry.getCommit())) {
+          continue;
+        }
 
-      for (final RemoteRefUpdate remoteUpdate: remoteUpdates) {
-        final org.eclipse.jgit.transport.RemoteRefUpdate.Status remoteUpdateStatus = remoteUpdate.getStatus();
+        ++changelogTotal;
 
-        if ((remoteUpdateStatus != org.eclipse.jgit.transport.RemoteRefUpdate.Status.OK) &&
-            (remoteUpdateStatus != org.eclipse.jgit.transport.RemoteRefUpdate.Status.UP_TO_DATE)) {
-          throw new RuntimeException("[ERROR] failed to push [" + branch + "] to [" + remote + "] [" + remoteUpdateStatus + "]");
+        final String revision = JGit.parseSvnRevision(entry.getNote());
+        if (revision != null) {
+          if (changelogLastRevision == null) {
+            changelogLastRevision = revision;
+          }
+          changelogFirstRevision = revision;
         }
 
-        sb.append(String.format("%15s -> %-25s [%s]", JGit.shortenRefName(remoteUpdate.getSrcRef()),
-            JGit.shortenRefName(remoteUpdate.getRemoteName()) + " (" + remoteUpdate.getNewObjectId().abbreviate(7).name() + ")",
-            remoteUpdateStatus.toString())).append("\n");
+        if (changelog.size() < limit) {
+          changelog.add(entry);
+        }
       }
     }
 
-    System.out.println(StringUtils.prettyFormat("+", OUTPUT_WIDTH, "Pushed [" + branch + "] to [" + remote + "]", sb.toString().trim()));
+    final StringBuilder sb = new StringBuilder();
+
+    for (final CommitNoteWalk.Entry entry: changelog) {
+      final String revision = JGit.parseSvnRevision(entry.getNote());
+      sb.append(String.format("%-10s %s  %s", (revision == null) ? "" : revision, entry.getCommit().abbreviate(7).name(),
+          entry.getCommit().getShortMessage())).append("\n");
+    }
+
+    if (changelogTotal > changelog.size()) {
+      sb.append("... and ").append(changelogTotal - changelog.size()).append(" more commit(s)").append("\n");
+    }
+
+    Log.pretty("-", OUTPUT_WIDTH, changelogTotal + " commit(s) merged" + getChangelogRange(), sb.toString().trim());
   }
 
-  private void doForkPush(final String branch, final String remote) throws Exception {
-    if (branch == null) {
-      throw new NullPointerException("argument 'branch' is null");
+  private static Set<ObjectId> toObjectIds(final String objectIds) {
+    final Set<ObjectId> set = new LinkedHashSet<>();
+
+    for (final String objectId: objectIds.split(",")) {
+      if (!objectId.isEmpty()) {
+        set.add(ObjectId.fromString(objectId));
+      }
+    }
+
+    return set;
+  }
+
+  private String getChangelogRange() {
+    if (changelogFirstRevision == null) {
+      return "";
+    }
+
+    if (changelogFirstRevision.equals(changelogLastRevision)) {
+      return " [" + changelogFirstRevision + "]";
+    }
+
+    return " [" + changelogFirstRevision + " .. " + changelogLastRevision + "]";
+  }
+
+  private void doPush(final Collection<String> branches, final String remote) throws Exception {
+    if (branches == null) {
+      throw new NullPointerException("argument 'branches' is null");
     }
 
     if (remote == null) {
       throw new NullPointerException("argument 'remote' is null");
     }
 
-    System.out.println(">> Starting the push, please be patient ...\n");
+    String username = null;
+    String password = null;
+    if (config.contains("git.username") && config.contains("git.password")) {
+      username = config.getString("git.username", false);
+      password = config.getString("git.password", false);
+    }
 
-    final String cmd = String.format("git push -v %s %s:%s", remote, branch, branch);
-    final Process process = Runtime.getRuntime().exec(cmd, null, jgit.getWorkTree());
+    Log.println(">> Starting the push, please be patient ...\n");
 
-    final InputStream prOut = process.getInputStream();
-    final Thread stdoutDrainer = new Thread() {
-      @Override
-      public void run()
-      {
-        try
-        {
-          int ch;
-          do
-          {
-            ch = prOut.read();
-            if (ch >= 0) {
-              System.out.print((char) ch);
-            }
-          }
-          while (ch >= 0);
-        }
-        catch (IOException ex)
-        {
-          // ex.printStackTrace();
-        }
-      }
-    };
+    final StringBuilder sb = new StringBuilder();
+    final List<String> rejected = new ArrayList<>();
 
-    final InputStream prErr = process.getErrorStream();
-    final Thread stderrDrainer = new Thread() {
-      @Override
-      public void run()
-      {
-        try
-        {
-          int ch;
-          do
-          {
-            ch = prErr.read();
-            if (ch >= 0) {
-              System.out.print((char) ch);
-            }
-          }
-          while (ch >= 0);
-        }
-        catch (IOException ex)
-        {
-          // ex.printStackTrace();
-        }
-      }
-    };
+    final PushResult resPush = jgit.push(branches, remote, username, password);
+    for (final RemoteRefUpdate remoteUpdate: resPush.getRemoteUpdates()) {
+      final org.eclipse.jgit.transport.RemoteRefUpdate.Status remoteUpdateStatus = remoteUpdate.getStatus();
 
-    stdoutDrainer.start();
-    stderrDrainer.start();
+      if ((remoteUpdateStatus != org.eclipse.jgit.transport.RemoteRefUpdate.Status.OK) &&
+          (remoteUpdateStatus != org.eclipse.jgit.transport.RemoteRefUpdate.Status.UP_TO_DATE)) {
+        rejected.add(JGit.shortenRefName(remoteUpdate.getSrcRef()));
+      }
 
-    final int retValue = process.waitFor();
+      sb.append(String.format("%15s -> %-25s [%s]", JGit.shortenRefName(remoteUpdate.getSrcRef()),
+          JGit.shortenRefName(remoteUpdate.getRemoteName()) + " (" + remoteUpdate.getNewObjectId().abbreviate(7).name() + ")",
+          remoteUpdateStatus.toString() + ((remoteUpdate.getMessage() == null) ? "" : ": " + remoteUpdate.getMessage()))).append("\n");
 
-    try {
-      prOut.close();
-      prErr.close();
+      pushUpdates.add(remoteUpdate);
     }
-    catch (IOException ex) {
-      // ex.printStackTrace();
+
+    // every ref is reported before failing, so a partial push is visible in the output
+    if (!rejected.isEmpty()) {
+      Log.pretty("*", OUTPUT_WIDTH, "Push Rejected " + rejected + " [" + remote + "]", sb.toString().trim());
+      throw new RuntimeException("[ERROR] failed to push " + rejected + " to [" + remote + "]");
     }
 
-    System.out.println();
+    Log.pretty("+", OUTPUT_WIDTH, "Pushed " + branches + " to [" + remote + "]", sb.toString().trim());
+  }
 
-    if (retValue != 0) {
-      throw new RuntimeException("[ERROR] failed to push branch [" + branch + "] to remote [" + remote + "] [Unexpected errors occurred (" + retValue + ")]");
+  private void doForkPush(final String branch, final String remote) throws Exception {
+    if (branch == null) {
+      throw new NullPointerException("argument 'branch' is null");
     }
-  }
 
-  private boolean isBlameExcluded(String file) {
-    if (file == null) {
-      throw new NullPointerException("argument 'file' is null");
+    if (remote == null) {
+      throw new NullPointerException("argument 'remote' is null");
     }
 
-    final String[] excludes = CommonUtils.getProperty(props, "git.blame.excludes", false).split(",");
+    Log.println(">> Starting the push, please be patient ...\n");
 
-    file = file.toLowerCase();
-    for (String exclude: excludes) {
-      exclude = exclude.toLowerCase().trim();
+    final int retValue = processRunner.run(true, true, "git", "push", "-v", remote, branch + ":" + branch);
 
-      if (exclude.isEmpty()) {
-        continue;
-      }
+    Log.println("");
 
-      if (file.endsWith("." + exclude)) {
-        return true;
-      }
+    if (retValue != 0) {
+      throw new RuntimeException("[ERROR] failed to push branch [" + branch + "] to remote [" + remote + "] [Unexpected errors occurred (" + retValue + ")]");
     }
-
-    return false;
   }
 
   private void doBlame() throws Exception {
-    final String skipBlame = CommonUtils.getProperty(props, "git.blame.skip", false);
-    if (skipBlame.equalsIgnoreCase("true") || skipBlame.equalsIgnoreCase("yes")) {
-      System.out.println(StringUtils.prettyFormat("*", OUTPUT_WIDTH, "[WARN] Blaming on conflicting files skipped"));
+    if (config.getBoolean("git.blame.skip")) {
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Blaming on conflicting files skipped");
       return;
     }
 
@@ -663,7 +1445,19 @@ public final class Robot {
 
     final StringBuilder blamed = new StringBuilder();
 
-    final String tmpBlameDir = tmpDir.toString() + File.separator + "blame";
+    final BlameBudget blameBudget = new BlameBudget(config.getBoolean("git.blame.follow.renames"),
+        config.getInt("git.blame.rename.score"),
+        config.getInt("git.blame.rename.limit"),
+        config.getInt("git.blame.max.commits"),
+        config.getLong("git.blame.max.age.days") * 24 * 60 * 60 * 1000,
+        config.getLong("git.blame.max.seconds") * 1000);
+
+    final BlameAdmission blameAdmission = new BlameAdmission(config.getBoolean("git.blame.skip.binary"),
+        config.getLong("git.blame.max.bytes"),
+        config.getInt("git.blame.max.lines"));
+
+    // blame trees are many small files, they go to the blame scratch area (eg: tmpfs) when one is configured
+    final String tmpBlameDir = FileUtils.mkdir(new File((blameScratch != null) ? blameScratch.getDir() : tmpDir, "blame")).toString();
 
     for (final Map.Entry<String, StageState> conflict: conflicts.entrySet()) {
       final String conflictFile = conflict.getKey();
@@ -673,7 +1467,7 @@ public final class Robot {
         continue;
       }
 
-      if (isBlameExcluded(conflictFile)) {
+      if (config.isBlameExcluded(conflictFile)) {
         continue;
       }
 
@@ -686,9 +1480,20 @@ public final class Robot {
         FileUtils.mkdir(new File(tmpBlameDir + File.separator + dirname));
       }
 
+      // binary or oversized files get a one line summary instead of a blame
+      final String rejection = jgit.getBlameRejection(conflictFile, blameAdmission);
+      if (rejection != null) {
+        try (final PrintWriter writer = new PrintWriter(tmpBlameDir + File.separator + conflictFile)) {
+          writer.println("[" + conflictFile + "] not blamed: " + rejection);
+        }
+
+        blamed.append(conflictFile).append(" (not blamed, ").append(rejection).append(")\n");
+        continue;
+      }
+
       final Format formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss ZZZZ");
 
-      final BlameResult resBlame = jgit.blame(conflictFile, true);
+      final Blame resBlame = jgit.blame(conflictFile, blameBudget);
       final RawText resultContents = resBlame.getResultContents();
       final int lines = resultContents.size();
 
@@ -705,7 +1510,12 @@ public final class Robot {
       for (int idx = 0; idx < lines; ++idx) {
         final StringBuilder sb = new StringBuilder();
 
-        sb.append(resBlame.getSourceCommit(idx).abbreviate(7).name()).append("  ");
+        if (resBlame.isBoundary(idx)) {
+          sb.append("^").append(resBlame.getSourceCommit(idx).abbreviate(6).name()).append("  ");
+        }
+        else {
+          sb.append(resBlame.getSourceCommit(idx).abbreviate(7).name()).append("  ");
+        }
         sb.append(String.format("%-" + maxAuthorLength + "s", resBlame.getSourceAuthor(idx).getName())).append("  ");
         sb.append(formatter.format(resBlame.getSourceAuthor(idx).getWhen())).append("  ");
         sb.append(String.format("%" + (Integer.toString(lines).length() * 2 + 2) + "s)", resBlame.getSourceLine(idx) + ":" + idx)).append("  ");
@@ -716,36 +1526,528 @@ public final class Robot {
 
       writer.close();
 
-      blamed.append(conflictFile).append("\n");
+      blamed.append(conflictFile);
+      if (resBlame.isTruncated()) {
+        blamed.append(" (budget exhausted, boundary ").append(resBlame.getBoundary().abbreviate(7).name()).append(")");
+      }
+      blamed.append("\n");
     }
 
-    ZipUtils.pack(new File(tmpBlameDir), new File(tmpDir.toString() + File.separator + BLAME_FILE_NAME), false);
+    int zipThreads = config.getInt("git.blame.zip.threads");
+    if (zipThreads <= 0) {
+      zipThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    ZipUtils.pack(new File(tmpBlameDir), new File(tmpDir.toString() + File.separator + BLAME_FILE_NAME), false, zipThreads);
 
-    System.out.println(StringUtils.prettyFormat("-", OUTPUT_WIDTH, "Blamed on conflicting files", blamed.toString().trim()));
+    Log.pretty("-", OUTPUT_WIDTH, "Blamed on conflicting files", blamed.toString().trim());
   }
 
-  private void doSendMail() throws Exception {
-    final String skipMail = CommonUtils.getProperty(props, "mail.skip", false);
-    if (skipMail.equalsIgnoreCase("true") || skipMail.equalsIgnoreCase("yes")) {
-      System.out.println(StringUtils.prettyFormat("*", OUTPUT_WIDTH, "[WARN] Sending summary mail skipped"));
+  private void doMaintenance() throws Exception {
+    if (!isMaintenanceDue) {
+      return;
+    }
+
+    // never touch the repository while a merge (or any other operation) is in progress
+    if (!jgit.isSafeState() || !jgit.isClean()) {
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Repository maintenance postponed, repository is busy");
+      return;
+    }
+
+    final String mode = config.getString("git.maintenance.mode", false);
+
+    if (mode.equalsIgnoreCase("jgit")) {
+      jgit.gc();
+    }
+    else if (mode.equalsIgnoreCase("fork")) {
+      processRunner.runChecked(true, true, "git", "-c", "repack.writeBitmaps=true", "gc", "--quiet");
+
+      // commit-graph requires git v2.18.0 or above, older clients simply skip it
+      try {
+        processRunner.runChecked(true, true, "git", "commit-graph", "write", "--reachable");
+      }
+      catch (RuntimeException ex) {
+        Log.pretty("*", OUTPUT_WIDTH, "[WARN] Writing commit-graph skipped", ex.getMessage());
+      }
+    }
+    else {
+      throw new RuntimeException("[ERROR] invalid value [" + mode + "] for property [git.maintenance.mode], expected [off], [jgit] or [fork]");
+    }
+
+    final RepoStatistics after = jgit.getStatistics();
+
+    Log.pretty("+", OUTPUT_WIDTH, "Repository maintained [" + mode.toLowerCase() + "]",
+        String.format("%d -> %d pack file(s), %d -> %d loose object(s)", repoStatistics.numberOfPackFiles, after.numberOfPackFiles,
+            repoStatistics.numberOfLooseObjects, after.numberOfLooseObjects));
+  }
+
+  private void doRecordHistory(final String mergeTo) {
+    if (mergeTo == null) {
+      throw new NullPointerException("argument 'mergeTo' is null");
+    }
+
+    try {
+      final ConflictHistory history = new ConflictHistory(new File(config.getString("history.dir", false)));
+      history.record(mergeRuns);
+
+      // one line per branch pair merged by this run, the counts come from the per-pair totals, not a history scan
+      final Set<String> pairs = new LinkedHashSet<>();
+      final StringBuilder sb = new StringBuilder();
+      for (final ConflictHistory.Run run: mergeRuns) {
+        if (pairs.add(run.getFrom())) {
+          final ConflictHistory.BranchPairStats stats = history.conflictRate(run.getFrom(), mergeTo);
+          sb.append(String.format("[%s -> %s] %d of %d run(s) conflicting", run.getFrom(), mergeTo, stats.getConflictingRuns(), stats.getRuns())).append("\n");
+        }
+      }
+
+      Log.pretty("-", OUTPUT_WIDTH, "Conflict history recorded", sb.toString().trim());
+    }
+    catch (Exception ex) {
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Recording conflict history failed", ex.toString());
+    }
+  }
+
+  private void startStage(final String stage) {
+    final long now = System.currentTimeMillis();
+
+    if (currentStage != null) {
+      stageTimings.put(currentStage, now - currentStageStartedMs);
+    }
+
+    currentStage = stage;
+    currentStageStartedMs = now;
+    Log.setContext("stage", stage);
+
+    // heartbeat, a claim that is not refreshed for batch.claim.timeout.minutes is taken by the next batch run
+    if (queue != null) {
+      queue.touch(requests);
+    }
+  }
+
+  private void logFailedRequests() {
+    if (queue.getFailed().isEmpty()) {
       return;
     }
 
-    final String[] mailTos = CommonUtils.getSystemProperty("mailTo", false).split(",");
+    final StringBuilder sb = new StringBuilder();
+
+    for (final File failed: queue.getFailed()) {
+      sb.append(failed.toString()).append("\n");
+    }
+
+    Log.pretty("*", OUTPUT_WIDTH, "[WARN] Merge requests failed " + config.getInt("batch.max.attempts") + " times, moved aside", sb.toString().trim());
+  }
+
+  private void doWriteReport(final String mergeFrom, final String mergeTo, final String remote, final Exception failure) {
+    final String failedStage = currentStage;
+    startStage(null);
+
+    final File reportDir = new File(config.getString("report.dir", false));
+    // named after the run id, unique even for runs started in the same millisecond
+    final String name = "report-" + runId;
+
+    final File partial = new File(reportDir, name + ".json.part");
+    final File report = new File(reportDir, name + ".json");
+
+    try {
+      FileUtils.mkdir(reportDir);
+
+      try (final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partial), ENCODING)))) {
+        writer.beginObject();
+
+        writer.field("run", runId);
+        writer.field("startedAt", startedMs);
+
+        // time from JVM start (and from robot start) until the first fetch began
+        writer.name("startup").beginObject();
+        writer.field("jvmStartedAt", ManagementFactory.getRuntimeMXBean().getStartTime());
+        if (firstFetchMs != 0) {
+          writer.field("jvmToFirstFetchMs", firstFetchMs - ManagementFactory.getRuntimeMXBean().getStartTime());
+          writer.field("robotToFirstFetchMs", firstFetchMs - startedMs);
+        }
+        writer.endObject();
+
+        writer.field("endedAt", System.currentTimeMillis());
+        writer.field("success", failure == null);
+        writer.field("aborted", isMergeAborted);
+        writer.field("nothingToMerge", isNothingToMerge);
+
+        writer.name("alreadyMerged").beginArray();
+        for (final String merged: alreadyMerged) {
+          writer.value(merged);
+        }
+        writer.endArray();
+
+        writer.name("rejected").beginArray();
+        for (final Map.Entry<String, Map<String, StageState>> rejectedMerge: rejectedMerges.entrySet()) {
+          writer.beginObject();
+          writer.field("name", rejectedMerge.getKey());
+          writer.field("conflicts", rejectedMerge.getValue().size());
+          writer.endObject();
+        }
+        writer.endArray();
+
+        writer.name("resumedStages").beginArray();
+        for (final String stage: resumedStages) {
+          writer.value(stage);
+        }
+        writer.endArray();
+        if (failure != null) {
+          writer.field("failedStage", failedStage);
+          writer.field("error", failure.getMessage());
+        }
+
+        writer.field("remote", remote);
+        writer.field("mergeFrom", mergeFrom);
+        writer.field("mergeTo", mergeTo);
+        writer.field("mergeToRevision", mergeToRevision);
+
+        writer.name("expression").beginObject();
+        writer.field("branch", mergeFromBranch);
+        writer.field("objectId", mergeFromObjectId);
+        writer.field("revision", mergeFromRevision);
+        writer.endObject();
+
+        writer.name("fetch").beginArray();
+        if (fetchResult != null) {
+          for (final TrackingRefUpdate trackingRefUpdate: fetchResult.getTrackingRefUpdates()) {
+            writer.beginObject();
+            writer.field("ref", trackingRefUpdate.getRemoteName());
+            writer.field("result", trackingRefUpdate.getResult().toString());
+            writer.field("oldObjectId", trackingRefUpdate.getOldObjectId().name());
+            writer.field("newObjectId", trackingRefUpdate.getNewObjectId().name());
+            writer.endObject();
+          }
+        }
+        writer.endArray();
+
+        writer.name("mergeCommit");
+        if (mergeCommit != null) {
+          writer.beginObject();
+          writer.field("objectId", mergeCommit.getId().name());
+          writer.field("author", mergeCommit.getAuthorIdent().getName());
+          writer.field("time", mergeCommit.getAuthorIdent().getWhen().getTime());
+          writer.field("message", mergeCommit.getFullMessage());
+          writer.endObject();
+        }
+        else {
+          writer.value((String) null);
+        }
+
+        writer.name("changelog").beginObject();
+        writer.field("total", changelogTotal);
+        writer.field("firstRevision", changelogFirstRevision);
+        writer.field("lastRevision", changelogLastRevision);
+        writer.name("commits").beginArray();
+        for (final CommitNoteWalk.Entry entry: changelog) {
+          writer.beginObject();
+          writer.field("objectId", entry.getCommit().getName());
+          writer.field("revision", JGit.parseSvnRevision(entry.getNote()));
+          writer.field("author", entry.getCommit().getAuthorIdent().getName());
+          writer.field("time", entry.getCommit().getAuthorIdent().getWhen().getTime());
+          writer.field("message", entry.getCommit().getShortMessage());
+          writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+
+        writer.name("conflicts").beginArray();
+        for (final Map.Entry<String, StageState> conflict: conflicts.entrySet()) {
+          writer.beginObject();
+          writer.field("path", conflict.getKey());
+          writer.field("state", conflict.getValue().toString());
+          writer.endObject();
+        }
+        writer.endArray();
+
+        writer.name("push").beginArray();
+        for (final RemoteRefUpdate remoteUpdate: pushUpdates) {
+          writer.beginObject();
+          writer.field("ref", remoteUpdate.getRemoteName());
+          writer.field("objectId", remoteUpdate.getNewObjectId().getName());
+          writer.field("status", remoteUpdate.getStatus().toString());
+          writer.field("message", remoteUpdate.getMessage());
+          writer.endObject();
+        }
+        writer.endArray();
+
+        if (repoStatistics != null) {
+          writer.name("repository").beginObject();
+          writer.field("packFiles", repoStatistics.numberOfPackFiles);
+          writer.field("looseObjects", repoStatistics.numberOfLooseObjects);
+          writer.field("maintenanceDue", isMaintenanceDue);
+          writer.endObject();
+        }
+
+        writer.name("risk").beginObject();
+        writer.field("pairs", (riskEntries != null) ? riskEntries.size() : 0);
+        writer.field("millis", riskMillis);
+        writer.endObject();
+
+        writer.name("scratch").beginObject();
+        writer.field("dir", tmpDir.toString());
+        writer.field("removedDirs", scratch.getRemovedDirs() + ((blameScratch != null) ? blameScratch.getRemovedDirs() : 0));
+        writer.field("removedBytes", scratch.getRemovedBytes() + ((blameScratch != null) ? blameScratch.getRemovedBytes() : 0));
+        writer.endObject();
+
+        writer.name("processes").beginObject();
+        writer.field("commands", processRunner.getCommands());
+        writer.field("millis", processRunner.getMillis());
+        writer.endObject();
+
+        writer.name("commitGraph").beginObject();
+        for (final Map.Entry<String, Long> stat: jgit.getCommitGraphStats().entrySet()) {
+          writer.field(stat.getKey(), stat.getValue().longValue());
+        }
+        writer.endObject();
+
+        writer.name("windowCache").beginObject();
+        if (windowCacheConfig != null) {
+          writer.field("packedGitLimit", windowCacheConfig.getPackedGitLimit());
+          writer.field("packedGitWindowSize", windowCacheConfig.getPackedGitWindowSize());
+          writer.field("packedGitOpenFiles", windowCacheConfig.getPackedGitOpenFiles());
+          writer.field("packedGitMMAP", windowCacheConfig.isPackedGitMMAP());
+          writer.field("deltaBaseCacheLimit", windowCacheConfig.getDeltaBaseCacheLimit());
+          writer.field("streamFileThreshold", windowCacheConfig.getStreamFileThreshold());
+        }
+        for (final Map.Entry<String, Long> stat: JGit.getWindowCacheStats().entrySet()) {
+          writer.field(stat.getKey(), stat.getValue());
+        }
+        writer.endObject();
+
+        writer.name("timings").beginObject();
+        for (final Map.Entry<String, Long> timing: stageTimings.entrySet()) {
+          writer.field(timing.getKey(), timing.getValue());
+        }
+        writer.endObject();
+
+        writer.endObject();
+      }
+
+      Files.move(partial.toPath(), report.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+      Log.pretty("-", OUTPUT_WIDTH, "Run report written", report.toString());
+    }
+    catch (Exception ex) {
+      // a report failure must never mask the outcome of the run itself
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Writing run report failed", ex.toString());
+
+      try {
+        Files.deleteIfExists(partial.toPath());
+      }
+      catch (Exception deleteEx) {
+        // deleteEx.printStackTrace();
+      }
+    }
+  }
+
+  private void doSendMail() throws Exception {
+    if (config.getBoolean("mail.skip")) {
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Sending summary mail skipped");
+      return;
+    }
 
-    final String smtpHost = CommonUtils.getProperty(props, "mail.smtp.host", false);
-    final String smtpPort = CommonUtils.getProperty(props, "mail.smtp.port", false);
+    final String smtpHost = config.getString("mail.smtp.host", false);
+    final String smtpPort = config.getString("mail.smtp.port", false);
 
     String username = null;
     String password = null;
-    if (props.containsKey("mail.username") && props.containsKey("mail.password")) {
-      username = CommonUtils.getProperty(props, "mail.username", false);
-      password = CommonUtils.getProperty(props, "mail.password", false);
+    if (config.contains("mail.username") && config.contains("mail.password")) {
+      username = config.getString("mail.username", false);
+      password = config.getString("mail.password", false);
+    }
+
+    outbox = new Outbox(new File(config.getString("mail.outbox.dir", false)), Mail.getProperties(smtpHost, smtpPort),
+        config.getInt("mail.outbox.retries"),
+        config.getLong("mail.outbox.backoff.ms"));
+
+    final Mail mail = newMail("Git Merge Robot - Summary");
+
+    final StringBuilder sb = new StringBuilder();
+
+    sb.append("<p>Dear <span style=\"font-style:italic;\">Human</span></p>");
+    if (isNothingToMerge) {
+      sb.append("<p><span style=\"font-weight:bold;\">Nothing to merge</span>, the branch already contains every source, ")
+        .append("nothing has been locked, committed or pushed.</p>");
+    }
+    else if (isMergeAborted) {
+      sb.append("<p>Merge <span style=\"color:red; font-weight:bold;\">aborted</span>, conflicts exceed the limit of ")
+        .append(config.getString("git.merge.max.conflicts", false))
+        .append(", nothing has been committed or pushed.</p>");
+    }
+    else if (conflicts.isEmpty() && rejectedMerges.isEmpty()) {
+      sb.append("<p>Merge completed <span style=\"color:green; font-weight:bold;\">successfully</span> without conflicts.</p>");
+      sb.append("<p>Please go ahead and share the exciting news with project team members.</p>");
+    }
+    else if (conflicts.isEmpty()) {
+      sb.append("<p>Merge completed without conflicts, some sources were <span style=\"color:red; font-weight:bold;\">not merged</span>, please check.</p>");
+    }
+    else {
+      sb.append("<p>Merge completed with <span style=\"color:red; font-weight:bold;\">conflicts</span>, please check.</p>");
+      sb.append("<table>");
+      for (final Map.Entry<String, StageState> conflict: conflicts.entrySet()) {
+        sb.append("<tr>");
+        sb.append("<td style=\"text-align:center;\">").append(conflict.getValue().toString()).append("</td>");
+        sb.append("<td>").append(conflict.getKey()).append("</td>");
+        sb.append("</tr>");
+      }
+      sb.append("</table>");
+    }
+
+    for (final Map.Entry<String, Map<String, StageState>> rejectedMerge: rejectedMerges.entrySet()) {
+      sb.append("<p>").append(StringUtils.escapeHtml(rejectedMerge.getKey())).append(" <span style=\"color:red; font-weight:bold;\">not merged</span>, ")
+        .append(rejectedMerge.getValue().size()).append(" conflicts exceed the limit of ")
+        .append(config.getString("git.merge.max.conflicts", false)).append(":</p>");
+      sb.append("<table>");
+      for (final Map.Entry<String, StageState> conflict: rejectedMerge.getValue().entrySet()) {
+        sb.append("<tr>");
+        sb.append("<td style=\"text-align:center;\">").append(conflict.getValue().toString()).append("</td>");
+        sb.append("<td>").append(conflict.getKey()).append("</td>");
+        sb.append("</tr>");
+      }
+      sb.append("</table>");
+    }
+
+    if (!alreadyMerged.isEmpty()) {
+      sb.append("<p>Already merged, skipped:</p>");
+      sb.append("<table>");
+      for (final String merged: alreadyMerged) {
+        sb.append("<tr>");
+        sb.append("<td>").append(StringUtils.escapeHtml(merged)).append("</td>");
+        sb.append("</tr>");
+      }
+      sb.append("</table>");
+    }
+
+    if (changelogTotal > 0) {
+      sb.append("<p>").append(changelogTotal).append(" commit(s) merged").append(StringUtils.escapeHtml(getChangelogRange())).append(":</p>");
+      sb.append("<table>");
+      for (final CommitNoteWalk.Entry entry: changelog) {
+        final String revision = JGit.parseSvnRevision(entry.getNote());
+        sb.append("<tr>");
+        sb.append("<td>").append((revision == null) ? "" : revision).append("</td>");
+        sb.append("<td>").append(entry.getCommit().abbreviate(7).name()).append("</td>");
+        sb.append("<td>").append(StringUtils.escapeHtml(entry.getCommit().getAuthorIdent().getName())).append("</td>");
+        sb.append("<td>").append(StringUtils.escapeHtml(entry.getCommit().getShortMessage())).append("</td>");
+        sb.append("</tr>");
+      }
+      sb.append("</table>");
+
+      if (changelogTotal > changelog.size()) {
+        sb.append("<p>... and ").append(changelogTotal - changelog.size()).append(" more commit(s).</p>");
+      }
+    }
+
+    if ((riskEntries != null) && !riskEntries.isEmpty()) {
+      final int limit = config.getInt("risk.mail.limit");
+
+      sb.append("<p>Conflict risk between branches (paths changed on both sides since their merge base):</p>");
+      sb.append("<table>");
+      for (final RiskMatrix.Entry entry: riskEntries.subList(0, (limit > 0) ? Math.min(limit, riskEntries.size()) : riskEntries.size())) {
+        final StringBuilder paths = new StringBuilder();
+        for (final String path: entry.getPaths()) {
+          paths.append((paths.length() == 0) ? "" : ", ").append(path);
+        }
+        if (entry.getOverlap() > entry.getPaths().size()) {
+          paths.append(", ...");
+        }
+
+        sb.append("<tr>");
+        sb.append("<td>").append(StringUtils.escapeHtml(entry.getFrom() + " <> " + entry.getTo())).append("</td>");
+        sb.append("<td style=\"text-align:right;\">").append(entry.getOverlap()).append("</td>");
+        sb.append("<td style=\"text-align:center;\">").append(entry.getChangedFrom()).append(" / ").append(entry.getChangedTo()).append("</td>");
+        sb.append("<td>").append(StringUtils.escapeHtml(paths.toString())).append("</td>");
+        sb.append("</tr>");
+      }
+      sb.append("</table>");
+    }
+
+    final File blameFile = new File(tmpDir.toString() + File.separator + BLAME_FILE_NAME);
+    final long maxAttachmentSize = config.getLong("mail.attachment.max.size");
+
+    List<File> blameChunks = null;
+
+    if (Files.exists(blameFile.toPath())) {
+      // the limit applies to the attachment as sent, base64 encoded, not to the file on disk
+      if ((maxAttachmentSize <= 0) || (Mail.getEncodedSize(blameFile.length()) <= maxAttachmentSize)) {
+        sb.append("<p>Please refer to blame information attached.</p>");
+        mail.attachFile(blameFile.toString(), BLAME_FILE_NAME);
+      }
+      else {
+        final String oversize = config.getString("mail.attachment.oversize", false);
+
+        if (oversize.equalsIgnoreCase("split")) {
+          final long chunkSize = Mail.getMaxRawSize(maxAttachmentSize);
+          if (chunkSize <= 0) {
+            throw new RuntimeException("[ERROR] property [mail.attachment.max.size] is too small to hold any encoded attachment [" + maxAttachmentSize + "]");
+          }
+
+          blameChunks = FileUtils.split(blameFile, chunkSize);
+
+          sb.append("<p>Blame information is too large to be attached in one mail, it has been split into ")
+            .append(blameChunks.size()).append(" parts and sent in separate mails.</p>");
+          sb.append("<p>Please concatenate the parts in order to restore <span style=\"font-style:italic;\">")
+            .append(BLAME_FILE_NAME).append("</span>.</p>");
+        }
+        else if (oversize.equalsIgnoreCase("link")) {
+          final File stored = storeArtifact(blameFile);
+
+          String link = stored.getAbsoluteFile().toURI().toString();
+          if (config.contains("mail.attachment.link.prefix")) {
+            link = config.getString("mail.attachment.link.prefix", false) + URLEncoder.encode(stored.getName(), ENCODING).replace("+", "%20");
+          }
+
+          sb.append("<p>Blame information is too large to be attached, please download it from <a href=\"")
+            .append(StringUtils.escapeHtml(link)).append("\">").append(StringUtils.escapeHtml(link)).append("</a>.</p>");
+        }
+        else {
+          throw new RuntimeException("[ERROR] invalid value [" + oversize + "] for property [mail.attachment.oversize], expected [split] or [link]");
+        }
+      }
+    }
+
+    mail.setContent(wrapMailBody(sb.toString()), "text/html");
+
+    final StringBuilder queued = new StringBuilder();
+    queued.append(outbox.enqueue(mail).toString()).append("\n");
+
+    if (blameChunks != null) {
+      for (int idx = 0; idx < blameChunks.size(); ++idx) {
+        final String part = (idx + 1) + "/" + blameChunks.size();
+        final Mail chunkMail = newMail("Git Merge Robot - Summary (blame part " + part + ")");
+
+        chunkMail.setContent(wrapMailBody("<p>Blame information part " + part + " attached.</p>"), "text/html");
+        chunkMail.attachFile(blameChunks.get(idx).toString(), blameChunks.get(idx).getName());
+
+        queued.append(outbox.enqueue(chunkMail).toString()).append("\n");
+      }
+    }
+
+    outbox.start(username, password);
+
+    Log.pretty("-", OUTPUT_WIDTH, "Summary mail queued", queued.toString().trim());
+  }
+
+  private Mail newMail(final String subject) throws Exception {
+    if (subject == null) {
+      throw new NullPointerException("argument 'subject' is null");
+    }
+
+    if (mailTos.isEmpty()) {
+      throw new RuntimeException("failed to get system property (property not found or may be empty) [mailTo]");
+    }
+
+    final String smtpHost = config.getString("mail.smtp.host", false);
+    final String smtpPort = config.getString("mail.smtp.port", false);
+
+    String username = null;
+    if (config.contains("mail.username")) {
+      username = config.getString("mail.username", false);
     }
 
     String domain = null;
-    if (props.containsKey("mail.default.domain")) {
-      domain = CommonUtils.getProperty(props, "mail.default.domain", false);
+    if (config.contains("mail.default.domain")) {
+      domain = config.getString("mail.default.domain", false);
     }
 
     final Mail mail = new Mail(Mail.getProperties(smtpHost, smtpPort));
@@ -753,8 +2055,17 @@ public final class Robot {
     if ((username != null) && (domain != null)) {
       mail.setFrom(Mail.getMailAddress(username, domain));
     }
-    mail.setSubject("Git Merge Robot - Summary", ENCODING);
+    mail.setSubject(subject, ENCODING);
     mail.setSentDate(new Date());
+    mail.setRecipients(Mail.RECIPIENT_TYPE_TO, mailTos, domain);
+
+    return mail;
+  }
+
+  private String wrapMailBody(final String body) {
+    if (body == null) {
+      throw new NullPointerException("argument 'body' is null");
+    }
 
     final StringBuilder sb = new StringBuilder();
 
@@ -769,34 +2080,66 @@ public final class Robot {
     sb.append("</head>");
 
     sb.append("<body>");
-    sb.append("<p>Dear <span style=\"font-style:italic;\">Human</span></p>");
-    if (conflicts.isEmpty()) {
-      sb.append("<p>Merge completed <span style=\"color:green; font-weight:bold;\">successfully</span> without conflicts.</p>");
-      sb.append("<p>Please go ahead and share the exciting news with project team members.</p>");
+    sb.append(body);
+    sb.append("<p class=\"signature1\">Best Regards</p>");
+    sb.append("<p class=\"signature2\">Git Merge Robot</p>");
+    sb.append("</body>");
+
+    return sb.toString();
+  }
+
+  private File storeArtifact(final File file) throws Exception {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' is null");
     }
-    else {
-      sb.append("<p>Merge completed with <span style=\"color:red; font-weight:bold;\">conflicts</span>, please check.</p>");
-      sb.append("<table>");
-      for (final Map.Entry<String, StageState> conflict: conflicts.entrySet()) {
-        sb.append("<tr>");
-        sb.append("<td style=\"text-align:center;\">").append(conflict.getValue().toString()).append("</td>");
-        sb.append("<td>").append(conflict.getKey()).append("</td>");
-        sb.append("</tr>");
+
+    final File storeDir = FileUtils.mkdir(new File(config.getString("mail.attachment.store.dir", false)));
+
+    final String name = file.getName();
+    final int dot = name.lastIndexOf('.');
+    final String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+    final File stored = new File(storeDir, (dot > 0) ? (name.substring(0, dot) + "-" + stamp + name.substring(dot)) : (name + "-" + stamp));
+    Files.copy(file.toPath(), stored.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    return stored;
+  }
+
+  private void doDeliverMail() throws Exception {
+    if (outbox == null) {
+      return;
+    }
+
+    final long timeoutMs = config.getLong("mail.outbox.wait.seconds") * 1000;
+    final boolean isDelivered = outbox.await(timeoutMs);
+
+    if (!outbox.getFailed().isEmpty()) {
+      final StringBuilder sb = new StringBuilder();
+
+      for (final File failed: outbox.getFailed()) {
+        sb.append(failed.toString()).append("\n");
       }
-      sb.append("</table>");
+
+      Log.pretty("*", OUTPUT_WIDTH, "[WARN] Mail rejected by relay after all retries, moved aside", sb.toString().trim());
     }
 
-    if (Files.exists(new File(tmpDir.toString() + File.separator + BLAME_FILE_NAME).toPath())) {
-      sb.append("<p>Please refer to blame information attached.</p>");
-      mail.attachFile(tmpDir.toString() + File.separator + BLAME_FILE_NAME);
+    if (isDelivered) {
+      Log.pretty("+", OUTPUT_WIDTH, "Summary mail delivered");
+      return;
     }
 
-    sb.append("<p class=\"signature1\">Best Regards</p>");
-    sb.append("<p class=\"signature2\">Git Merge Robot</p>");
-    sb.append("</body>");
+    final StringBuilder sb = new StringBuilder();
+
+    for (final File pending: outbox.pending()) {
+      sb.append(pending.toString()).append("\n");
+    }
+
+    if (outbox.getLastError() != null) {
+      sb.append("\n").append(outbox.getLastError().toString()).append("\n");
+    }
 
-    mail.setContent(sb.toString(), "text/html");
-    mail.setRecipients(Mail.RECIPIENT_TYPE_TO, Arrays.asList(mailTos), domain);
-    mail.send(username, password);
+    // the push already succeeded at this point, so undelivered mail must not fail the run;
+    // whatever is left in the outbox will be retried by the next run
+    Log.pretty("*", OUTPUT_WIDTH, "[WARN] Summary mail NOT delivered yet, kept in outbox", sb.toString().trim());
   }
 }
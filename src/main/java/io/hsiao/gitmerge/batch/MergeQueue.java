@@ -0,0 +1,258 @@
+package io.hsiao.gitmerge.batch;
+
+import io.hsiao.gitmerge.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+// Directory based queue of single revision merge requests
+//
+// Requests for the same destination are coalesced: the first request opens a
+// window, and once the window has elapsed the whole burst is claimed at once so
+// it can be merged in one worktree session and pushed once. A request that has
+// been put back 'maxAttempts' times is moved to 'failed/' so it cannot fail every
+// batch it is claimed with.
+public final class MergeQueue {
+  private static final String QUEUED_SUFFIX = ".request";
+  private static final String CLAIMED_SUFFIX = ".claimed";
+  private static final String PARTIAL_SUFFIX = ".part";
+  private static final String FAILED_DIR_NAME = "failed";
+
+  private final File dir;
+  private final int maxAttempts;
+
+  private final List<File> failed = Collections.synchronizedList(new ArrayList<File>());
+
+  // 'maxAttempts' of 0 means a request is put back for as long as it keeps failing
+  public MergeQueue(final File dir, final int maxAttempts) throws Exception {
+    if (dir == null) {
+      throw new NullPointerException("argument 'dir' is null");
+    }
+
+    this.dir = FileUtils.mkdir(dir);
+    this.maxAttempts = Math.max(maxAttempts, 0);
+  }
+
+  public File enqueue(final MergeRequest request) throws Exception {
+    if (request == null) {
+      throw new NullPointerException("argument 'request' is null");
+    }
+
+    final Properties props = new Properties();
+    props.setProperty("mergeFrom", request.getMergeFrom());
+    props.setProperty("mergeTo", request.getMergeTo());
+    props.setProperty("message", request.getMessage());
+    props.setProperty("mailTo", request.getMailTo());
+    props.setProperty("enqueuedMs", Long.toString(request.getEnqueuedMs()));
+    props.setProperty("attempts", "0");
+
+    final String name = String.format("%d-%d", request.getEnqueuedMs(), System.nanoTime());
+    final File partial = new File(dir, name + PARTIAL_SUFFIX);
+    final File queued = new File(dir, name + QUEUED_SUFFIX);
+
+    try (final OutputStream os = new FileOutputStream(partial)) {
+      props.store(os, null);
+    }
+
+    Files.move(partial.toPath(), queued.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    request.setFile(queued);
+
+    return queued;
+  }
+
+  // claims every queued request for 'mergeTo' once the oldest of them is at least 'windowMs' old;
+  // returns an empty list while the window is still open. Requests whose claim has not been refreshed
+  // for 'claimTimeoutMs' (0 means never), held by a run that died without releasing them, are queued
+  // again (or moved to 'failed/') first
+  public List<MergeRequest> claim(final String mergeTo, final long windowMs, final long claimTimeoutMs) throws Exception {
+    if (mergeTo == null) {
+      throw new NullPointerException("argument 'mergeTo' is null");
+    }
+
+    if (claimTimeoutMs > 0) {
+      reclaim(claimTimeoutMs);
+    }
+
+    final List<MergeRequest> requests = new ArrayList<>();
+
+    for (final File file: list(QUEUED_SUFFIX)) {
+      final MergeRequest request = read(file);
+      if (request.getMergeTo().equals(mergeTo)) {
+        requests.add(request);
+      }
+    }
+
+    if (requests.isEmpty() || (System.currentTimeMillis() - requests.get(0).getEnqueuedMs() < windowMs)) {
+      return new ArrayList<>();
+    }
+
+    final List<MergeRequest> claimed = new ArrayList<>();
+
+    for (final MergeRequest request: requests) {
+      final File queued = request.getFile();
+      final File target = new File(dir, queued.getName().substring(0, queued.getName().length() - QUEUED_SUFFIX.length()) + CLAIMED_SUFFIX);
+
+      // another batch run may have claimed it in the meantime
+      try {
+        Files.move(queued.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (Exception ex) {
+        continue;
+      }
+
+      // the claim time, a rename keeps the time the request was queued
+      target.setLastModified(System.currentTimeMillis());
+
+      request.setFile(target);
+      claimed.add(request);
+    }
+
+    return claimed;
+  }
+
+  // drops claimed requests once they have been merged (or reported)
+  public void complete(final List<MergeRequest> requests) throws Exception {
+    if (requests == null) {
+      throw new NullPointerException("argument 'requests' is null");
+    }
+
+    for (final MergeRequest request: requests) {
+      Files.deleteIfExists(request.getFile().toPath());
+    }
+  }
+
+  // refreshes the claim time of claimed requests, so that a run still working on them is not taken for dead
+  public void touch(final List<MergeRequest> requests) {
+    if (requests == null) {
+      throw new NullPointerException("argument 'requests' is null");
+    }
+
+    final long now = System.currentTimeMillis();
+
+    for (final MergeRequest request: requests) {
+      if (request.getFile().getName().endsWith(CLAIMED_SUFFIX)) {
+        request.getFile().setLastModified(now);
+      }
+    }
+  }
+
+  // puts claimed requests back into the queue so that the next batch run retries them,
+  // a request out of attempts is moved to 'failed/' instead
+  public void release(final List<MergeRequest> requests) throws Exception {
+    if (requests == null) {
+      throw new NullPointerException("argument 'requests' is null");
+    }
+
+    for (final MergeRequest request: requests) {
+      final File claimed = request.getFile();
+      if (!claimed.getName().endsWith(CLAIMED_SUFFIX)) {
+        continue;
+      }
+
+      final File file = requeue(claimed);
+      if (file != null) {
+        request.setFile(file);
+      }
+    }
+  }
+
+  // requests moved to 'failed/' by this queue after running out of attempts
+  public List<File> getFailed() {
+    synchronized (failed) {
+      return new ArrayList<>(failed);
+    }
+  }
+
+  private void reclaim(final long claimTimeoutMs) throws Exception {
+    final long now = System.currentTimeMillis();
+
+    for (final File claimed: list(CLAIMED_SUFFIX)) {
+      final long modifiedMs = claimed.lastModified();
+      if ((modifiedMs == 0) || (now - modifiedMs < claimTimeoutMs)) {
+        continue;
+      }
+
+      requeue(claimed);
+    }
+  }
+
+  // counts a failed attempt and queues the request again, or moves it to 'failed/' once out of attempts;
+  // returns null when another batch run got to it first
+  private File requeue(final File claimed) throws Exception {
+    final String name = claimed.getName().substring(0, claimed.getName().length() - CLAIMED_SUFFIX.length());
+    final File partial = new File(dir, name + PARTIAL_SUFFIX);
+
+    // taking the claimed file out of sight first, so that only one batch run updates it
+    try {
+      Files.move(claimed.toPath(), partial.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (Exception ex) {
+      return null;
+    }
+
+    final Properties props = new Properties();
+
+    try (final InputStream ins = new FileInputStream(partial)) {
+      props.load(ins);
+    }
+
+    final int attempts = Integer.parseInt(props.getProperty("attempts", "0")) + 1;
+    props.setProperty("attempts", Integer.toString(attempts));
+
+    try (final OutputStream os = new FileOutputStream(partial)) {
+      props.store(os, null);
+    }
+
+    if ((maxAttempts > 0) && (attempts >= maxAttempts)) {
+      final File failedFile = new File(FileUtils.mkdir(new File(dir, FAILED_DIR_NAME)), name + QUEUED_SUFFIX);
+      Files.move(partial.toPath(), failedFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      failed.add(failedFile);
+      return failedFile;
+    }
+
+    final File queued = new File(dir, name + QUEUED_SUFFIX);
+    Files.move(partial.toPath(), queued.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    return queued;
+  }
+
+  private File[] list(final String suffix) {
+    final File[] files = dir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(final File parent, final String name) {
+        return name.endsWith(suffix);
+      }
+    });
+
+    if (files == null) {
+      return new File[0];
+    }
+
+    Arrays.sort(files);
+    return files;
+  }
+
+  private static MergeRequest read(final File file) throws Exception {
+    final Properties props = new Properties();
+
+    try (final InputStream ins = new FileInputStream(file)) {
+      props.load(ins);
+    }
+
+    final MergeRequest request = new MergeRequest(props.getProperty("mergeFrom"), props.getProperty("mergeTo"),
+        props.getProperty("message"), props.getProperty("mailTo"), Long.parseLong(props.getProperty("enqueuedMs", "0")));
+    request.setFile(file);
+
+    return request;
+  }
+}
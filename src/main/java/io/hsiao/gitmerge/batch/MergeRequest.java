@@ -0,0 +1,61 @@
+package io.hsiao.gitmerge.batch;
+
+import java.io.File;
+
+public final class MergeRequest {
+  private final String mergeFrom;
+  private final String mergeTo;
+  private final String message;
+  private final String mailTo;
+  private final long enqueuedMs;
+
+  private File file;
+
+  public MergeRequest(final String mergeFrom, final String mergeTo, final String message, final String mailTo, final long enqueuedMs) {
+    if (mergeFrom == null) {
+      throw new NullPointerException("argument 'mergeFrom' is null");
+    }
+
+    if (mergeTo == null) {
+      throw new NullPointerException("argument 'mergeTo' is null");
+    }
+
+    if (message == null) {
+      throw new NullPointerException("argument 'message' is null");
+    }
+
+    this.mergeFrom = mergeFrom;
+    this.mergeTo = mergeTo;
+    this.message = message;
+    this.mailTo = (mailTo == null) ? "" : mailTo;
+    this.enqueuedMs = enqueuedMs;
+  }
+
+  public String getMergeFrom() {
+    return mergeFrom;
+  }
+
+  public String getMergeTo() {
+    return mergeTo;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public String getMailTo() {
+    return mailTo;
+  }
+
+  public long getEnqueuedMs() {
+    return enqueuedMs;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  void setFile(final File file) {
+    this.file = file;
+  }
+}
@@ -0,0 +1,166 @@
+package io.hsiao.gitmerge.config;
+
+import io.hsiao.gitmerge.utils.CommonUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Immutable snapshot of config.properties
+//
+// Every value is read once when the snapshot is built: comma separated lists are
+// split and trimmed up front and the blame exclusions are compiled into a set of
+// suffixes, so lookups are plain map reads. reload() swaps in a new snapshot
+// atomically when the file has changed since the current one was loaded; holders
+// of the old snapshot keep a consistent view until they ask again.
+public final class Config {
+  private static final AtomicReference<Config> current = new AtomicReference<>();
+
+  private final File file;
+  private final long modified;
+  private final long length;
+
+  private final Map<String, String> values;
+  private final Map<String, List<String>> lists;
+  private final Set<String> blameExcludes;
+
+  private Config(final File file, final Properties props) {
+    this.file = file;
+    this.modified = (file != null) ? file.lastModified() : 0;
+    this.length = (file != null) ? file.length() : 0;
+
+    final Map<String, String> values = new HashMap<>();
+    final Map<String, List<String>> lists = new HashMap<>();
+
+    for (final String name: props.stringPropertyNames()) {
+      final String value = props.getProperty(name);
+      values.put(name, value);
+
+      final List<String> items = new ArrayList<>();
+      for (final String item: value.split(",")) {
+        if (!item.trim().isEmpty()) {
+          items.add(item.trim());
+        }
+      }
+      lists.put(name, Collections.unmodifiableList(items));
+    }
+
+    final Set<String> blameExcludes = new HashSet<>();
+    if (lists.containsKey("git.blame.excludes")) {
+      for (final String exclude: lists.get("git.blame.excludes")) {
+        blameExcludes.add("." + exclude.toLowerCase());
+      }
+    }
+
+    this.values = Collections.unmodifiableMap(values);
+    this.lists = Collections.unmodifiableMap(lists);
+    this.blameExcludes = Collections.unmodifiableSet(blameExcludes);
+  }
+
+  // loads 'name' from the filesystem (or the classpath), without touching the current snapshot
+  public static Config load(final String name) throws IOException {
+    if (name == null) {
+      throw new NullPointerException("argument 'name' is null");
+    }
+
+    final File file = new File(name);
+    return new Config(file.isFile() ? file.getAbsoluteFile() : null, CommonUtils.loadProperties(name));
+  }
+
+  // returns the current snapshot, loading 'name' first when there is none yet or when its file has changed
+  public static Config reload(final String name) throws IOException {
+    if (name == null) {
+      throw new NullPointerException("argument 'name' is null");
+    }
+
+    while (true) {
+      final Config config = current.get();
+      if ((config != null) && !config.isChanged()) {
+        return config;
+      }
+
+      final Config loaded = load(name);
+      if (current.compareAndSet(config, loaded)) {
+        return loaded;
+      }
+    }
+  }
+
+  public static Config current() {
+    return current.get();
+  }
+
+  // whether the file this snapshot was loaded from has been modified since (always false for classpath resources)
+  public boolean isChanged() {
+    return (file != null) && ((file.lastModified() != modified) || (file.length() != length));
+  }
+
+  public boolean contains(final String name) {
+    if (name == null) {
+      throw new NullPointerException("argument 'name' is null");
+    }
+
+    return values.containsKey(name);
+  }
+
+  // same contract as CommonUtils.getProperty
+  public String getString(final String name, final boolean allowEmpty) {
+    if (name == null) {
+      throw new NullPointerException("argument 'name' is null");
+    }
+
+    final String value = values.containsKey(name) ? values.get(name) : "";
+
+    if (value.isEmpty() && !allowEmpty) {
+      throw new RuntimeException("failed to get property (property not found or may be empty) [" + name + "]");
+    }
+
+    return value;
+  }
+
+  public int getInt(final String name) {
+    return Integer.parseInt(getString(name, false));
+  }
+
+  public long getLong(final String name) {
+    return Long.parseLong(getString(name, false));
+  }
+
+  // 'true' or 'yes' (ignoring case) means true
+  public boolean getBoolean(final String name) {
+    final String value = getString(name, false);
+    return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("yes");
+  }
+
+  // comma separated items, trimmed, empty items dropped
+  public List<String> getList(final String name, final boolean allowEmpty) {
+    getString(name, allowEmpty);
+
+    return lists.containsKey(name) ? lists.get(name) : Collections.<String>emptyList();
+  }
+
+  // whether 'file' ends with '.<ext>' for one of the extensions in 'git.blame.excludes' (ignoring case)
+  public boolean isBlameExcluded(final String file) {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' is null");
+    }
+
+    final String name = file.toLowerCase();
+
+    for (int idx = name.lastIndexOf('.'); idx >= 0; idx = name.lastIndexOf('.', idx - 1)) {
+      if (blameExcludes.contains(name.substring(idx))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,486 @@
+package io.hsiao.gitmerge.history;
+
+import io.hsiao.gitmerge.utils.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.IndexDiff.StageState;
+
+// Append-only conflict history
+//
+// conflicts.log: sequence of [int length][record] entries, never rewritten
+// conflicts.idx: fixed size [long offset][long timestamp] entries, one per record
+// conflicts.pairs: run and conflict counts per branch pair, covering the first 'records' entries
+//
+// The index is appended after the record, so a record is only visible once it has
+// been fully written; a torn trailing write in either file is ignored on read.
+// Writers hold a lock on conflicts.lock, cut a torn index entry off before
+// appending, and never let index timestamps go backwards, so the index stays
+// aligned and sorted for the binary search.
+public final class ConflictHistory {
+  private static final String LOG_FILE_NAME = "conflicts.log";
+  private static final String INDEX_FILE_NAME = "conflicts.idx";
+  private static final String PAIRS_FILE_NAME = "conflicts.pairs";
+  private static final String LOCK_FILE_NAME = "conflicts.lock";
+  private static final String PARTIAL_SUFFIX = ".part";
+  private static final int INDEX_ENTRY_SIZE = 16;
+  private static final int RECORD_VERSION = 1;
+
+  private static final String KEY_RECORDS = "records";
+  private static final String PAIR_SEPARATOR = " -> ";
+
+  private static final StageState[] STAGE_STATES = StageState.values();
+
+  // file locks are held per process, threads of the same process queue up here first
+  private static final Object LOCK = new Object();
+
+  private final File logFile;
+  private final File indexFile;
+  private final File pairsFile;
+  private final File lockFile;
+
+  public ConflictHistory(final File dir) throws IOException {
+    if (dir == null) {
+      throw new NullPointerException("argument 'dir' is null");
+    }
+
+    FileUtils.mkdir(dir);
+
+    logFile = new File(dir, LOG_FILE_NAME);
+    indexFile = new File(dir, INDEX_FILE_NAME);
+    pairsFile = new File(dir, PAIRS_FILE_NAME);
+    lockFile = new File(dir, LOCK_FILE_NAME);
+  }
+
+  public void record(final long timestamp, final String from, final String to,
+      final String fromRevision, final String toRevision, final Map<String, StageState> conflicts) throws IOException {
+    record(Collections.singletonList(new Run(timestamp, from, to, fromRevision, toRevision, conflicts)));
+  }
+
+  // appends 'runs' in order, as one locked write
+  public void record(final List<Run> runs) throws IOException {
+    if (runs == null) {
+      throw new NullPointerException("argument 'runs' is null");
+    }
+
+    synchronized (LOCK) {
+      try (final FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+        final FileLock lock = lockChannel.lock();
+
+        try {
+          long lastTimestamp = Long.MIN_VALUE;
+
+          try (final RandomAccessFile idx = new RandomAccessFile(indexFile, "rw")) {
+            final long length = idx.length();
+            if (length % INDEX_ENTRY_SIZE != 0) {
+              idx.setLength(length - length % INDEX_ENTRY_SIZE);
+            }
+
+            if (idx.length() >= INDEX_ENTRY_SIZE) {
+              idx.seek(idx.length() - 8);
+              lastTimestamp = idx.readLong();
+            }
+          }
+
+          final Properties pairs = loadPairs();
+
+          for (final Run run: runs) {
+            lastTimestamp = Math.max(lastTimestamp, run.getTimestamp());
+            append(run, lastTimestamp);
+
+            final BranchPairStats stats = getPairStats(pairs, run.getFrom(), run.getTo());
+            stats.add(run.getConflicts().size());
+            pairs.setProperty(run.getFrom() + PAIR_SEPARATOR + run.getTo(), stats.getRuns() + "," + stats.getConflictingRuns() + "," + stats.getConflicts());
+          }
+
+          pairs.setProperty(KEY_RECORDS, Integer.toString(size()));
+          storePairs(pairs);
+        }
+        finally {
+          lock.release();
+        }
+      }
+    }
+  }
+
+  // run and conflict counts of 'from' -> 'to' over the whole history, without reading the log
+  public BranchPairStats conflictRate(final String from, final String to) throws IOException {
+    if (from == null) {
+      throw new NullPointerException("argument 'from' is null");
+    }
+
+    if (to == null) {
+      throw new NullPointerException("argument 'to' is null");
+    }
+
+    final Properties pairs = new Properties();
+    if (pairsFile.isFile()) {
+      try (final InputStream ins = new FileInputStream(pairsFile)) {
+        pairs.load(ins);
+      }
+    }
+
+    return getPairStats(pairs, from, to);
+  }
+
+  public int size() {
+    return (int) (indexFile.length() / INDEX_ENTRY_SIZE);
+  }
+
+  public List<Run> runs(final long sinceMs) throws IOException {
+    final List<Run> runs = new ArrayList<>();
+
+    final int entries = size();
+    if (entries == 0) {
+      return runs;
+    }
+
+    try (final RandomAccessFile idx = new RandomAccessFile(indexFile, "r");
+      final RandomAccessFile log = new RandomAccessFile(logFile, "r")) {
+      final long logLength = log.length();
+
+      for (int entry = firstEntrySince(idx, entries, sinceMs); entry < entries; ++entry) {
+        idx.seek((long) entry * INDEX_ENTRY_SIZE);
+        final long offset = idx.readLong();
+
+        if (offset + 4 > logLength) {
+          break;
+        }
+
+        log.seek(offset);
+        final int length = log.readInt();
+        if (offset + 4 + length > logLength) {
+          break;
+        }
+
+        final byte[] record = new byte[length];
+        log.readFully(record);
+
+        runs.add(Run.read(record));
+      }
+    }
+
+    return runs;
+  }
+
+  public List<PathStats> hotPaths(final long sinceMs, final int limit) throws IOException {
+    final Map<String, int[]> counts = new HashMap<>();
+
+    for (final Run run: runs(sinceMs)) {
+      for (final String path: run.getConflicts().keySet()) {
+        final int[] count = counts.get(path);
+        if (count == null) {
+          counts.put(path, new int[] {1});
+        }
+        else {
+          ++count[0];
+        }
+      }
+    }
+
+    final List<PathStats> stats = new ArrayList<>(counts.size());
+    for (final Map.Entry<String, int[]> count: counts.entrySet()) {
+      stats.add(new PathStats(count.getKey(), count.getValue()[0]));
+    }
+
+    Collections.sort(stats, new Comparator<PathStats>() {
+      @Override
+      public int compare(final PathStats lhs, final PathStats rhs) {
+        if (lhs.getCount() != rhs.getCount()) {
+          return (lhs.getCount() > rhs.getCount()) ? -1 : 1;
+        }
+        return lhs.getPath().compareTo(rhs.getPath());
+      }
+    });
+
+    return (limit > 0 && stats.size() > limit) ? new ArrayList<>(stats.subList(0, limit)) : stats;
+  }
+
+  public Map<String, BranchPairStats> conflictRates(final long sinceMs) throws IOException {
+    final Map<String, BranchPairStats> rates = new TreeMap<>();
+
+    for (final Run run: runs(sinceMs)) {
+      final String key = run.getFrom() + PAIR_SEPARATOR + run.getTo();
+
+      BranchPairStats stats = rates.get(key);
+      if (stats == null) {
+        stats = new BranchPairStats(run.getFrom(), run.getTo());
+        rates.put(key, stats);
+      }
+
+      stats.add(run.getConflicts().size());
+    }
+
+    return rates;
+  }
+
+  private void append(final Run run, final long indexTimestamp) throws IOException {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final DataOutputStream dos = new DataOutputStream(bos)) {
+      dos.writeByte(RECORD_VERSION);
+      dos.writeLong(run.getTimestamp());
+      dos.writeUTF(run.getFrom());
+      dos.writeUTF(run.getTo());
+      dos.writeUTF(run.getFromRevision() == null ? "" : run.getFromRevision());
+      dos.writeUTF(run.getToRevision() == null ? "" : run.getToRevision());
+      dos.writeInt(run.getConflicts().size());
+
+      for (final Map.Entry<String, StageState> conflict: run.getConflicts().entrySet()) {
+        dos.writeByte(conflict.getValue().ordinal());
+        dos.writeUTF(conflict.getKey());
+      }
+    }
+
+    final byte[] record = bos.toByteArray();
+
+    final long offset;
+    try (final RandomAccessFile log = new RandomAccessFile(logFile, "rw")) {
+      offset = log.length();
+      log.seek(offset);
+      log.writeInt(record.length);
+      log.write(record);
+      log.getFD().sync();
+    }
+
+    try (final DataOutputStream idx = new DataOutputStream(new FileOutputStream(indexFile, true))) {
+      idx.writeLong(offset);
+      idx.writeLong(indexTimestamp);
+    }
+  }
+
+  // the pair counts, rebuilt from the log when they do not cover every record (first use, or a crash in between)
+  private Properties loadPairs() throws IOException {
+    final Properties pairs = new Properties();
+
+    if (pairsFile.isFile()) {
+      try (final InputStream ins = new FileInputStream(pairsFile)) {
+        pairs.load(ins);
+      }
+
+      if (Integer.toString(size()).equals(pairs.getProperty(KEY_RECORDS))) {
+        return pairs;
+      }
+    }
+
+    pairs.clear();
+    for (final Map.Entry<String, BranchPairStats> rate: conflictRates(0).entrySet()) {
+      final BranchPairStats stats = rate.getValue();
+      pairs.setProperty(rate.getKey(), stats.getRuns() + "," + stats.getConflictingRuns() + "," + stats.getConflicts());
+    }
+
+    return pairs;
+  }
+
+  private void storePairs(final Properties pairs) throws IOException {
+    final File partial = new File(pairsFile.getParentFile(), PAIRS_FILE_NAME + PARTIAL_SUFFIX);
+
+    try (final OutputStream os = new FileOutputStream(partial)) {
+      pairs.store(os, null);
+    }
+
+    Files.move(partial.toPath(), pairsFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static BranchPairStats getPairStats(final Properties pairs, final String from, final String to) {
+    final String value = pairs.getProperty(from + PAIR_SEPARATOR + to);
+    if (value == null) {
+      return new BranchPairStats(from, to);
+    }
+
+    final String[] counts = value.split(",");
+    return new BranchPairStats(from, to, Integer.parseInt(counts[0]), Integer.parseInt(counts[1]), Long.parseLong(counts[2]));
+  }
+
+  // binary search over the time ordered index for the first record at or after 'sinceMs'
+  private static int firstEntrySince(final RandomAccessFile idx, final int entries, final long sinceMs) throws IOException {
+    int low = 0;
+    int high = entries;
+
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      idx.seek((long) mid * INDEX_ENTRY_SIZE + 8);
+
+      if (idx.readLong() < sinceMs) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  public static final class Run {
+    private final long timestamp;
+    private final String from;
+    private final String to;
+    private final String fromRevision;
+    private final String toRevision;
+    private final Map<String, StageState> conflicts;
+
+    public Run(final long timestamp, final String from, final String to, final String fromRevision, final String toRevision,
+        final Map<String, StageState> conflicts) {
+      if (from == null) {
+        throw new NullPointerException("argument 'from' is null");
+      }
+
+      if (to == null) {
+        throw new NullPointerException("argument 'to' is null");
+      }
+
+      if (conflicts == null) {
+        throw new NullPointerException("argument 'conflicts' is null");
+      }
+
+      this.timestamp = timestamp;
+      this.from = from;
+      this.to = to;
+      this.fromRevision = fromRevision;
+      this.toRevision = toRevision;
+      this.conflicts = new TreeMap<>(conflicts);
+    }
+
+    private static Run read(final byte[] record) throws IOException {
+      try (final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record))) {
+        final int version = dis.readByte();
+        if (version != RECORD_VERSION) {
+          throw new IOException("unsupported conflict history record version [" + version + "]");
+        }
+
+        final long timestamp = dis.readLong();
+        final String from = dis.readUTF();
+        final String to = dis.readUTF();
+        final String fromRevision = dis.readUTF();
+        final String toRevision = dis.readUTF();
+
+        final int count = dis.readInt();
+        final Map<String, StageState> conflicts = new TreeMap<>();
+        for (int idx = 0; idx < count; ++idx) {
+          final StageState state = STAGE_STATES[dis.readByte()];
+          conflicts.put(dis.readUTF(), state);
+        }
+
+        return new Run(timestamp, from, to, fromRevision.isEmpty() ? null : fromRevision, toRevision.isEmpty() ? null : toRevision, conflicts);
+      }
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public String getFrom() {
+      return from;
+    }
+
+    public String getTo() {
+      return to;
+    }
+
+    public String getFromRevision() {
+      return fromRevision;
+    }
+
+    public String getToRevision() {
+      return toRevision;
+    }
+
+    public Map<String, StageState> getConflicts() {
+      return Collections.unmodifiableMap(conflicts);
+    }
+  }
+
+  public static final class PathStats {
+    private final String path;
+    private final int count;
+
+    private PathStats(final String path, final int count) {
+      this.path = path;
+      this.count = count;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+
+  public static final class BranchPairStats {
+    private final String from;
+    private final String to;
+
+    private int runs;
+    private int conflictingRuns;
+    private long conflicts;
+
+    private BranchPairStats(final String from, final String to) {
+      this(from, to, 0, 0, 0);
+    }
+
+    private BranchPairStats(final String from, final String to, final int runs, final int conflictingRuns, final long conflicts) {
+      this.from = from;
+      this.to = to;
+      this.runs = runs;
+      this.conflictingRuns = conflictingRuns;
+      this.conflicts = conflicts;
+    }
+
+    private void add(final int count) {
+      ++runs;
+      if (count > 0) {
+        ++conflictingRuns;
+        conflicts += count;
+      }
+    }
+
+    public String getFrom() {
+      return from;
+    }
+
+    public String getTo() {
+      return to;
+    }
+
+    public int getRuns() {
+      return runs;
+    }
+
+    public int getConflictingRuns() {
+      return conflictingRuns;
+    }
+
+    public long getConflicts() {
+      return conflicts;
+    }
+
+    public double getConflictRate() {
+      return (runs == 0) ? 0.0 : ((double) conflictingRuns / runs);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package io.hsiao.gitmerge.jgit;
+
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+// Blame result computed within a budget, lines that could not be attributed
+// before the budget ran out are attributed to the boundary commit instead
+public final class Blame {
+  private final BlameResult result;
+  private final RevCommit boundary;
+  private final boolean isTruncated;
+
+  Blame(final BlameResult result, final RevCommit boundary, final boolean isTruncated) {
+    if (result == null) {
+      throw new NullPointerException("argument 'result' is null");
+    }
+
+    if (boundary == null) {
+      throw new NullPointerException("argument 'boundary' is null");
+    }
+
+    this.result = result;
+    this.boundary = boundary;
+    this.isTruncated = isTruncated;
+  }
+
+  public RawText getResultContents() {
+    return result.getResultContents();
+  }
+
+  public boolean isTruncated() {
+    return isTruncated;
+  }
+
+  public RevCommit getBoundary() {
+    return boundary;
+  }
+
+  public boolean isBoundary(final int idx) {
+    return !result.hasSourceData(idx);
+  }
+
+  public RevCommit getSourceCommit(final int idx) {
+    return isBoundary(idx) ? boundary : result.getSourceCommit(idx);
+  }
+
+  public PersonIdent getSourceAuthor(final int idx) {
+    return isBoundary(idx) ? boundary.getAuthorIdent() : result.getSourceAuthor(idx);
+  }
+
+  public int getSourceLine(final int idx) {
+    return isBoundary(idx) ? idx : result.getSourceLine(idx);
+  }
+}
@@ -0,0 +1,26 @@
+package io.hsiao.gitmerge.jgit;
+
+// Limits deciding whether a file is worth a blame at all, a value of zero (or below) means unlimited
+public final class BlameAdmission {
+  private final boolean isSkipBinary;
+  private final long maxBytes;
+  private final int maxLines;
+
+  public BlameAdmission(final boolean isSkipBinary, final long maxBytes, final int maxLines) {
+    this.isSkipBinary = isSkipBinary;
+    this.maxBytes = maxBytes;
+    this.maxLines = maxLines;
+  }
+
+  public boolean isSkipBinary() {
+    return isSkipBinary;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public int getMaxLines() {
+    return maxLines;
+  }
+}
@@ -0,0 +1,49 @@
+package io.hsiao.gitmerge.jgit;
+
+// Limits applied to a single file blame, a value of zero (or below) means unlimited
+public final class BlameBudget {
+  private final boolean isFollowFileRenames;
+  private final int renameScore;
+  private final int renameLimit;
+  private final int maxCommits;
+  private final long maxAgeMs;
+  private final long maxMillis;
+
+  public BlameBudget(final boolean isFollowFileRenames, final int renameScore, final int renameLimit,
+      final int maxCommits, final long maxAgeMs, final long maxMillis) {
+    if ((renameScore < 0) || (renameScore > 100)) {
+      throw new IllegalArgumentException("argument 'renameScore' must be between 0 and 100");
+    }
+
+    this.isFollowFileRenames = isFollowFileRenames;
+    this.renameScore = renameScore;
+    this.renameLimit = renameLimit;
+    this.maxCommits = maxCommits;
+    this.maxAgeMs = maxAgeMs;
+    this.maxMillis = maxMillis;
+  }
+
+  public boolean isFollowFileRenames() {
+    return isFollowFileRenames;
+  }
+
+  public int getRenameScore() {
+    return renameScore;
+  }
+
+  public int getRenameLimit() {
+    return renameLimit;
+  }
+
+  public int getMaxCommits() {
+    return maxCommits;
+  }
+
+  public long getMaxAgeMs() {
+    return maxAgeMs;
+  }
+
+  public long getMaxMillis() {
+    return maxMillis;
+  }
+}
@@ -0,0 +1,501 @@
+package io.hsiao.gitmerge.jgit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+// Compact in-memory commit graph
+//
+// Commits are numbered in insertion order (parents always before children) and
+// kept in primitive arrays: five ints of object id, the generation number (one
+// more than the highest parent generation) and the parent indexes. A commit is
+// only parsed once, when it is first added; ancestry and merge base queries then
+// walk the arrays, pruned by generation, and merge bases are memoized per pair.
+// The arrays can be saved to a file and loaded by the next run, so a rebuild of a
+// long history is only paid once.
+final class CommitGraph {
+  private static final int MAGIC = 0x43475248;
+  private static final int VERSION = 1;
+  private static final int ID_WORDS = 5;
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  // memoized merge bases kept at most, the memo is dropped when full
+  private static final int MAX_MEMO_ENTRIES = 100000;
+
+  private static final byte FLAG_LHS = 1;
+  private static final byte FLAG_RHS = 2;
+
+  private int size;
+  private int[] ids;
+  private int[] generations;
+  private int[] parentOffsets;
+  private int[] parents;
+  private int parentsSize;
+
+  // open addressing, index + 1 per slot, 0 means empty
+  private int[] table;
+
+  // per query marks, a slot only counts when its stamp is the current one
+  private int[] stamps;
+  private byte[] flags;
+  private int stamp;
+
+  private final int[] probe = new int[ID_WORDS];
+
+  private final Map<Long, Integer> mergeBases;
+  private boolean isDirty;
+
+  private long mergeBaseQueries;
+  private long mergeBaseHits;
+  private long ancestryQueries;
+
+  CommitGraph() {
+    this(1024);
+  }
+
+  private CommitGraph(final int capacity) {
+    ids = new int[capacity * ID_WORDS];
+    generations = new int[capacity];
+    parentOffsets = new int[capacity + 1];
+    parents = new int[capacity];
+    table = new int[Integer.highestOneBit(Math.max(capacity, 16)) * 4];
+    stamps = new int[capacity];
+    flags = new byte[capacity];
+    mergeBases = new HashMap<>();
+  }
+
+  // the graph saved in 'file', or an empty one when there is none (or it cannot be read)
+  static CommitGraph load(final File file) {
+    if ((file == null) || !file.isFile()) {
+      return new CommitGraph();
+    }
+
+    try (final DataInputStream ins = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+      if ((ins.readInt() != MAGIC) || (ins.readInt() != VERSION)) {
+        return new CommitGraph();
+      }
+
+      final int size = ins.readInt();
+      final int parentsSize = ins.readInt();
+
+      final CommitGraph graph = new CommitGraph(Math.max(size, 1024));
+      graph.parents = ensure(graph.parents, parentsSize);
+
+      for (int idx = 0; idx < size * ID_WORDS; ++idx) {
+        graph.ids[idx] = ins.readInt();
+      }
+      for (int idx = 0; idx < size; ++idx) {
+        graph.generations[idx] = ins.readInt();
+      }
+      for (int idx = 0; idx <= size; ++idx) {
+        graph.parentOffsets[idx] = ins.readInt();
+      }
+      for (int idx = 0; idx < parentsSize; ++idx) {
+        graph.parents[idx] = ins.readInt();
+      }
+
+      graph.size = size;
+      graph.parentsSize = parentsSize;
+
+      graph.table = new int[Integer.highestOneBit(Math.max(size, 16)) * 4];
+      for (int idx = 0; idx < size; ++idx) {
+        graph.insert(idx);
+      }
+
+      return graph;
+    }
+    catch (IOException ex) {
+      // ex.printStackTrace();
+      return new CommitGraph();
+    }
+  }
+
+  synchronized void save(final File file) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' is null");
+    }
+
+    if (!isDirty) {
+      return;
+    }
+
+    final File partial = new File(file.getPath() + PARTIAL_SUFFIX);
+
+    try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial), 64 * 1024))) {
+      os.writeInt(MAGIC);
+      os.writeInt(VERSION);
+      os.writeInt(size);
+      os.writeInt(parentsSize);
+
+      for (int idx = 0; idx < size * ID_WORDS; ++idx) {
+        os.writeInt(ids[idx]);
+      }
+      for (int idx = 0; idx < size; ++idx) {
+        os.writeInt(generations[idx]);
+      }
+      for (int idx = 0; idx <= size; ++idx) {
+        os.writeInt(parentOffsets[idx]);
+      }
+      for (int idx = 0; idx < parentsSize; ++idx) {
+        os.writeInt(parents[idx]);
+      }
+    }
+
+    Files.move(partial.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    isDirty = false;
+  }
+
+  // adds 'starts' and every commit reachable from them that is not in the graph yet,
+  // parsing only those; returns the number of commits added
+  synchronized int add(final Repository repository, final Collection<? extends AnyObjectId> starts) throws IOException {
+    final int before = size;
+
+    try (final RevWalk revWalk = new RevWalk(repository)) {
+      revWalk.setRetainBody(false);
+
+      // iterative post-order, so a commit is only added once all of its parents are
+      RevCommit[] stack = new RevCommit[64];
+      int top = 0;
+
+      for (final AnyObjectId start: starts) {
+        if (find(start) >= 0) {
+          continue;
+        }
+
+        stack[top++] = revWalk.parseCommit(start);
+
+        while (top > 0) {
+          final RevCommit commit = stack[top - 1];
+          if (find(commit) >= 0) {
+            --top;
+            continue;
+          }
+
+          boolean isReady = true;
+          for (final RevCommit parent: commit.getParents()) {
+            if (find(parent) < 0) {
+              if (top == stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+              }
+              revWalk.parseHeaders(parent);
+              stack[top++] = parent;
+              isReady = false;
+            }
+          }
+
+          if (isReady) {
+            append(commit);
+            --top;
+          }
+        }
+      }
+    }
+
+    if (size > before) {
+      isDirty = true;
+    }
+
+    return size - before;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  synchronized boolean contains(final AnyObjectId objectId) {
+    return find(objectId) >= 0;
+  }
+
+  // whether 'ancestor' is reachable from 'descendant' (a commit is its own ancestor); both must be in the graph
+  synchronized boolean isAncestor(final AnyObjectId ancestor, final AnyObjectId descendant) {
+    final int target = require(ancestor);
+    final int start = require(descendant);
+
+    ++ancestryQueries;
+
+    if (target == start) {
+      return true;
+    }
+
+    final int targetGeneration = generations[target];
+    if (targetGeneration >= generations[start]) {
+      return false;
+    }
+
+    nextStamp();
+
+    int[] stack = new int[64];
+    int top = 0;
+    stack[top++] = start;
+    stamps[start] = stamp;
+
+    while (top > 0) {
+      final int idx = stack[--top];
+
+      for (int offset = parentOffsets[idx]; offset < parentOffsets[idx + 1]; ++offset) {
+        final int parent = parents[offset];
+        if (parent == target) {
+          return true;
+        }
+
+        // anything at or below the target's generation cannot lead to it
+        if ((generations[parent] > targetGeneration) && (stamps[parent] != stamp)) {
+          stamps[parent] = stamp;
+          if (top == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+          }
+          stack[top++] = parent;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  // a best common ancestor of 'lhs' and 'rhs' (one with the highest generation), or null; both must be in the graph
+  synchronized ObjectId getMergeBase(final AnyObjectId lhs, final AnyObjectId rhs) {
+    final int left = require(lhs);
+    final int right = require(rhs);
+
+    ++mergeBaseQueries;
+
+    final Long key = Long.valueOf(((long) Math.min(left, right) << 32) | Math.max(left, right));
+    Integer base = mergeBases.get(key);
+
+    if (base != null) {
+      ++mergeBaseHits;
+    }
+    else {
+      base = Integer.valueOf(paint(left, right));
+
+      if (mergeBases.size() >= MAX_MEMO_ENTRIES) {
+        mergeBases.clear();
+      }
+      mergeBases.put(key, base);
+    }
+
+    return (base.intValue() < 0) ? null : ObjectId.fromRaw(ids, base.intValue() * ID_WORDS);
+  }
+
+  synchronized long getMergeBaseQueries() {
+    return mergeBaseQueries;
+  }
+
+  synchronized long getMergeBaseHits() {
+    return mergeBaseHits;
+  }
+
+  synchronized long getAncestryQueries() {
+    return ancestryQueries;
+  }
+
+  // paints both sides down the graph in decreasing generation order: every child of a
+  // commit comes out before the commit, so the first commit seen with both colors is
+  // a common ancestor no other common ancestor descends from
+  private int paint(final int left, final int right) {
+    if (left == right) {
+      return left;
+    }
+
+    nextStamp();
+
+    final IntHeap heap = new IntHeap();
+    mark(left, FLAG_LHS, heap);
+    mark(right, FLAG_RHS, heap);
+
+    while (!heap.isEmpty()) {
+      final int idx = heap.pop();
+      final byte color = flags[idx];
+
+      if (color == (FLAG_LHS | FLAG_RHS)) {
+        return idx;
+      }
+
+      for (int offset = parentOffsets[idx]; offset < parentOffsets[idx + 1]; ++offset) {
+        mark(parents[offset], color, heap);
+      }
+    }
+
+    return -1;
+  }
+
+  private void mark(final int idx, final byte color, final IntHeap heap) {
+    if (stamps[idx] != stamp) {
+      stamps[idx] = stamp;
+      flags[idx] = color;
+      heap.push(idx);
+    }
+    else {
+      flags[idx] |= color;
+    }
+  }
+
+  private void nextStamp() {
+    if (++stamp == Integer.MAX_VALUE) {
+      Arrays.fill(stamps, 0);
+      stamp = 1;
+    }
+  }
+
+  private int require(final AnyObjectId objectId) {
+    if (objectId == null) {
+      throw new NullPointerException("argument 'objectId' is null");
+    }
+
+    final int idx = find(objectId);
+    if (idx < 0) {
+      throw new IllegalArgumentException("commit not in graph [" + objectId.name() + "]");
+    }
+
+    return idx;
+  }
+
+  private void append(final RevCommit commit) {
+    final int idx = size;
+
+    ids = ensure(ids, (idx + 1) * ID_WORDS);
+    generations = ensure(generations, idx + 1);
+    parentOffsets = ensure(parentOffsets, idx + 2);
+    parents = ensure(parents, parentsSize + commit.getParentCount());
+    stamps = ensure(stamps, idx + 1);
+    flags = (flags.length > idx) ? flags : Arrays.copyOf(flags, generations.length);
+
+    commit.copyRawTo(ids, idx * ID_WORDS);
+
+    int generation = 0;
+    parentOffsets[idx] = parentsSize;
+    for (final RevCommit parent: commit.getParents()) {
+      final int parentIdx = find(parent);
+      parents[parentsSize++] = parentIdx;
+      generation = Math.max(generation, generations[parentIdx]);
+    }
+    parentOffsets[idx + 1] = parentsSize;
+    generations[idx] = generation + 1;
+
+    index(idx);
+    ++size;
+  }
+
+  private void index(final int idx) {
+    if ((size + 1) * 2 > table.length) {
+      final int[] old = table;
+      table = new int[old.length * 2];
+      for (final int entry: old) {
+        if (entry != 0) {
+          insert(entry - 1);
+        }
+      }
+    }
+
+    insert(idx);
+  }
+
+  private void insert(final int idx) {
+    final int mask = table.length - 1;
+    int slot = ids[idx * ID_WORDS + 1] & mask;
+
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+
+    table[slot] = idx + 1;
+  }
+
+  private int find(final AnyObjectId objectId) {
+    final int[] words = probe;
+    objectId.copyRawTo(words, 0);
+
+    final int mask = table.length - 1;
+    int slot = words[1] & mask;
+
+    while (table[slot] != 0) {
+      final int idx = table[slot] - 1;
+      final int base = idx * ID_WORDS;
+
+      if ((ids[base] == words[0]) && (ids[base + 1] == words[1]) && (ids[base + 2] == words[2]) &&
+          (ids[base + 3] == words[3]) && (ids[base + 4] == words[4])) {
+        return idx;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  private static int[] ensure(final int[] array, final int length) {
+    if (array.length >= length) {
+      return array;
+    }
+
+    return Arrays.copyOf(array, Math.max(length, array.length + (array.length >> 1)));
+  }
+
+  // binary max-heap of commit indexes ordered by generation
+  private final class IntHeap {
+    private int[] heap = new int[64];
+    private int count;
+
+    private boolean isEmpty() {
+      return count == 0;
+    }
+
+    private void push(final int idx) {
+      if (count == heap.length) {
+        heap = Arrays.copyOf(heap, heap.length * 2);
+      }
+
+      int pos = count++;
+      while (pos > 0) {
+        final int parent = (pos - 1) >>> 1;
+        if (generations[heap[parent]] >= generations[idx]) {
+          break;
+        }
+        heap[pos] = heap[parent];
+        pos = parent;
+      }
+      heap[pos] = idx;
+    }
+
+    private int pop() {
+      final int top = heap[0];
+      final int last = heap[--count];
+
+      int pos = 0;
+      while (true) {
+        int child = pos * 2 + 1;
+        if (child >= count) {
+          break;
+        }
+        if ((child + 1 < count) && (generations[heap[child + 1]] > generations[heap[child]])) {
+          ++child;
+        }
+        if (generations[heap[child]] <= generations[last]) {
+          break;
+        }
+        heap[pos] = heap[child];
+        pos = child;
+      }
+      heap[pos] = last;
+
+      return top;
+    }
+  }
+}
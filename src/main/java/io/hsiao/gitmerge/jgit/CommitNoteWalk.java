@@ -0,0 +1,174 @@
+package io.hsiao.gitmerge.jgit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.notes.Note;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+
+// Streams (commit, note) pairs for a commit range, the note map is loaded
+// once for the whole walk instead of once per commit. The walk does not keep
+// commit bodies: only the first 'bodies' entries come with a parsed body (message,
+// author), later ones carry headers only and their bodies are never read.
+public final class CommitNoteWalk implements Iterable<CommitNoteWalk.Entry>, AutoCloseable {
+  private static final int MAX_NOTE_SIZE = 64 * 1024;
+
+  private final ObjectReader reader;
+  private final RevWalk revWalk;
+  private final NoteMap noteMap;
+  private final int bodies;
+
+  CommitNoteWalk(final Repository repository, final AnyObjectId include, final AnyObjectId exclude, final int bodies) throws IOException {
+    if (repository == null) {
+      throw new NullPointerException("argument 'repository' is null");
+    }
+
+    if (include == null) {
+      throw new NullPointerException("argument 'include' is null");
+    }
+
+    reader = repository.newObjectReader();
+    revWalk = new RevWalk(reader);
+    revWalk.setRetainBody(false);
+    this.bodies = bodies;
+
+    try {
+      final Ref notesRef = repository.getRef(Constants.R_NOTES_COMMITS);
+      if (notesRef != null) {
+        noteMap = NoteMap.read(reader, revWalk.parseCommit(notesRef.getObjectId()));
+      }
+      else {
+        noteMap = NoteMap.newEmptyMap();
+      }
+
+      revWalk.markStart(revWalk.parseCommit(include));
+      if (exclude != null) {
+        revWalk.markUninteresting(revWalk.parseCommit(exclude));
+      }
+    }
+    catch (IOException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  @Override
+  public Iterator<Entry> iterator() {
+    return new Iterator<Entry>() {
+      private RevCommit next;
+      private boolean isFetched;
+      private int emitted;
+
+      @Override
+      public boolean hasNext() {
+        if (!isFetched) {
+          try {
+            next = revWalk.next();
+          }
+          catch (IOException ex) {
+            throw new RuntimeException("[ERROR] failed to walk commits: " + ex.getMessage(), ex);
+          }
+          isFetched = true;
+        }
+
+        return next != null;
+      }
+
+      @Override
+      public Entry next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        isFetched = false;
+
+        try {
+          if (emitted++ < bodies) {
+            revWalk.parseBody(next);
+          }
+
+          return new Entry(next, readNote(next));
+        }
+        catch (IOException ex) {
+          throw new RuntimeException("[ERROR] failed to read note for [" + next.getName() + "]: " + ex.getMessage(), ex);
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  public String readNote(final AnyObjectId objectId) throws IOException {
+    if (objectId == null) {
+      throw new NullPointerException("argument 'objectId' is null");
+    }
+
+    final Note note = noteMap.getNote(objectId);
+    if (note == null) {
+      return "";
+    }
+
+    final ObjectLoader loader = reader.open(note.getData());
+
+    if (loader.getSize() <= MAX_NOTE_SIZE) {
+      try {
+        return RawParseUtils.decode(loader.getCachedBytes(MAX_NOTE_SIZE));
+      }
+      catch (LargeObjectException ex) {
+        // ex.printStackTrace();
+      }
+    }
+
+    // an oversized note is cut at MAX_NOTE_SIZE instead of failing the walk, the svn revision sits at its head
+    final byte[] head = new byte[MAX_NOTE_SIZE];
+    int length = 0;
+
+    try (final InputStream ins = loader.openStream()) {
+      for (int count; (length < head.length) && ((count = ins.read(head, length, head.length - length)) >= 0);) {
+        length += count;
+      }
+    }
+
+    return RawParseUtils.decode(head, 0, length);
+  }
+
+  @Override
+  public void close() {
+    revWalk.close();
+    reader.close();
+  }
+
+  public static final class Entry {
+    private final RevCommit commit;
+    private final String note;
+
+    private Entry(final RevCommit commit, final String note) {
+      this.commit = commit;
+      this.note = note;
+    }
+
+    // without a body past the walk's 'bodies' entries
+    public RevCommit getCommit() {
+      return commit;
+    }
+
+    public String getNote() {
+      return note;
+    }
+  }
+}
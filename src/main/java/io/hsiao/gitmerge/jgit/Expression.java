@@ -0,0 +1,173 @@
+package io.hsiao.gitmerge.jgit;
+
+// Parsed 'mergeFrom' expression: branch[:svn|git:revision]
+//
+// Hand written single pass scanner equivalent to the former
+// \A\s*(\S+?)\s*:\s*(svn|git)\s*:(\S+)\s*\Z (case insensitive) pattern,
+// without per call pattern compilation or regex backtracking
+public final class Expression {
+  public static final String TYPE_GIT = "git";
+  public static final String TYPE_SVN = "svn";
+
+  private final String branch;
+  private final String type;
+  private final String revision;
+
+  private Expression(final String branch, final String type, final String revision) {
+    this.branch = branch;
+    this.type = type;
+    this.revision = revision;
+  }
+
+  public static Expression parse(final String expression) {
+    if (expression == null) {
+      throw new NullPointerException("argument 'expression' is null");
+    }
+
+    final int length = expression.length();
+
+    int begin = 0;
+    while ((begin < length) && isSpace(expression.charAt(begin))) {
+      ++begin;
+    }
+
+    // the branch is the shortest non-whitespace prefix followed by a valid ':type:revision' tail
+    for (int idx = begin + 1; idx < length; ++idx) {
+      final char ch = expression.charAt(idx);
+
+      if (isSpace(ch) || (ch == ':')) {
+        final Expression parsed = parseTail(expression, begin, idx);
+        if (parsed != null) {
+          return parsed;
+        }
+      }
+
+      if (isSpace(ch)) {
+        break;
+      }
+    }
+
+    return new Expression(expression, null, null);
+  }
+
+  private static Expression parseTail(final String expression, final int branchBegin, final int branchEnd) {
+    final int length = expression.length();
+    int pos = skipWhitespace(expression, branchEnd);
+
+    if ((pos >= length) || (expression.charAt(pos) != ':')) {
+      return null;
+    }
+    pos = skipWhitespace(expression, pos + 1);
+
+    if (pos + 3 > length) {
+      return null;
+    }
+
+    final String type;
+    if (expression.regionMatches(true, pos, TYPE_SVN, 0, 3)) {
+      type = TYPE_SVN;
+    }
+    else if (expression.regionMatches(true, pos, TYPE_GIT, 0, 3)) {
+      type = TYPE_GIT;
+    }
+    else {
+      return null;
+    }
+    pos = skipWhitespace(expression, pos + 3);
+
+    if ((pos >= length) || (expression.charAt(pos) != ':')) {
+      return null;
+    }
+    ++pos;
+
+    final int revisionBegin = pos;
+    while ((pos < length) && !isSpace(expression.charAt(pos))) {
+      ++pos;
+    }
+    final int revisionEnd = pos;
+
+    if ((revisionBegin == revisionEnd) || (skipWhitespace(expression, revisionEnd) != length)) {
+      return null;
+    }
+
+    return new Expression(expression.substring(branchBegin, branchEnd), type, expression.substring(revisionBegin, revisionEnd));
+  }
+
+  private static int skipWhitespace(final String str, int pos) {
+    while ((pos < str.length()) && isSpace(str.charAt(pos))) {
+      ++pos;
+    }
+    return pos;
+  }
+
+  // returns the leading SVN revision (eg: r12306) of a git-svn note, or null
+  public static String parseSvnRevision(final String notes) {
+    if (notes == null) {
+      throw new NullPointerException("argument 'notes' is null");
+    }
+
+    final int length = notes.length();
+    int pos = skipWhitespace(notes, 0);
+
+    final int begin = pos;
+    if ((pos >= length) || (Character.toLowerCase(notes.charAt(pos)) != 'r')) {
+      return null;
+    }
+    ++pos;
+
+    while ((pos < length) && (notes.charAt(pos) >= '0') && (notes.charAt(pos) <= '9')) {
+      ++pos;
+    }
+    final int end = pos;
+
+    if ((end == begin + 1) || (end >= length) || !isSpace(notes.charAt(end))) {
+      return null;
+    }
+
+    // whatever follows the separating whitespace must be a non-empty single line
+    int lastLineBreak = -1;
+    for (int idx = end; idx < length; ++idx) {
+      if (isLineTerminator(notes.charAt(idx))) {
+        lastLineBreak = idx;
+      }
+    }
+
+    if (lastLineBreak < 0) {
+      return (length - end >= 2) ? notes.substring(begin, end) : null;
+    }
+
+    for (int idx = end; idx <= lastLineBreak; ++idx) {
+      if (!isSpace(notes.charAt(idx))) {
+        return null;
+      }
+    }
+
+    return (lastLineBreak + 1 < length) ? notes.substring(begin, end) : null;
+  }
+
+  // same line terminators as the regex '.' excludes
+  private static boolean isLineTerminator(final char ch) {
+    return (ch == '\n') || (ch == '\r') || (ch == 0x0085) || (ch == 0x2028) || (ch == 0x2029);
+  }
+
+  // same characters as the regex '\s' class
+  private static boolean isSpace(final char ch) {
+    return (ch == ' ') || (ch == '\t') || (ch == '\n') || (ch == 0x000B) || (ch == '\f') || (ch == '\r');
+  }
+
+  public String getBranch() {
+    return branch;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public String getRevision() {
+    return revision;
+  }
+
+  public boolean isRevision() {
+    return type != null;
+  }
+}
@@ -1,14 +1,21 @@
 package io.hsiao.gitmerge.jgit;
 
+import io.hsiao.gitmerge.log.Log;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.PrintWriter;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.BlameCommand;
@@ -20,35 +27,67 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.MergeCommand;
 import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
 import org.eclipse.jgit.api.MergeResult;
-import org.eclipse.jgit.api.PushCommand;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.blame.BlameGenerator;
 import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RenameDetector;
 import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.GC.RepoStatistics;
+import org.eclipse.jgit.internal.storage.file.PackFile;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff.StageState;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectStream;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
 import org.eclipse.jgit.lib.StoredConfig;
-import org.eclipse.jgit.lib.TextProgressMonitor;
 import org.eclipse.jgit.merge.MergeStrategy;
 import org.eclipse.jgit.notes.Note;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.PushResult;
 import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 public final class JGit {
   private static final String ENCODING = "UTF-8";
+  private static final int BLAME_SNIFF_SIZE = 8000;
 
   private final Repository repository;
   private final Git git;
   private final boolean isUseProgressMonitor;
 
+  private CommitGraph commitGraph;
+  private File commitGraphFile;
+  private long commitGraphLoadMillis;
+  private final AtomicLong commitGraphMisses;
+
   public JGit(final String gitDir, final String gitProgressMonitor) throws Exception {
     if (gitDir == null) {
       throw new NullPointerException("argument 'gitDir' is null");
@@ -67,13 +106,14 @@ public final class JGit {
 
     repository = new FileRepositoryBuilder().setGitDir(new File(gitDir)).readEnvironment().findGitDir().build();
     git = new Git(repository);
+    commitGraphMisses = new AtomicLong();
   }
 
   public boolean isClean() throws Exception {
     final StatusCommand cmdStatus = git.status();
 
     if (isUseProgressMonitor) {
-      cmdStatus.setProgressMonitor(new TextProgressMonitor(new PrintWriter(System.out)));
+      cmdStatus.setProgressMonitor(Log.newProgressMonitor());
     }
 
     return cmdStatus.call().isClean();
@@ -129,6 +169,167 @@ public final class JGit {
     return cmdBlame.call();
   }
 
+  // decides from the blob in HEAD (read through the object database, not the worktree) whether 'file'
+  // is worth a blame; returns null when it is, otherwise why it is not
+  public String getBlameRejection(final String file, final BlameAdmission admission) throws Exception {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' is null");
+    }
+
+    if (admission == null) {
+      throw new NullPointerException("argument 'admission' is null");
+    }
+
+    try (final RevWalk revWalk = new RevWalk(repository);
+      final TreeWalk treeWalk = TreeWalk.forPath(repository, file, revWalk.parseCommit(repository.resolve(Constants.HEAD)).getTree())) {
+      // a missing file is left to blame, which reports it
+      if (treeWalk == null) {
+        return null;
+      }
+
+      final ObjectLoader loader = repository.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB);
+      final long size = loader.getSize();
+
+      if ((admission.getMaxBytes() > 0) && (size > admission.getMaxBytes())) {
+        return "size " + size + " bytes exceeds " + admission.getMaxBytes() + " bytes";
+      }
+
+      if (!admission.isSkipBinary() && (admission.getMaxLines() <= 0)) {
+        return null;
+      }
+
+      // binary content is sniffed on the first block, lines are counted until over the limit
+      try (final ObjectStream ins = loader.openStream()) {
+        final byte[] buffer = new byte[BLAME_SNIFF_SIZE];
+
+        int len = 0;
+        while (len < buffer.length) {
+          final int read = ins.read(buffer, len, buffer.length - len);
+          if (read < 0) {
+            break;
+          }
+          len += read;
+        }
+
+        if (admission.isSkipBinary() && RawText.isBinary(buffer, len)) {
+          return "binary content";
+        }
+
+        if (admission.getMaxLines() <= 0) {
+          return null;
+        }
+
+        long lines = 0;
+        byte last = '\n';
+        while (len > 0) {
+          for (int idx = 0; idx < len; ++idx) {
+            if (buffer[idx] == '\n') {
+              ++lines;
+            }
+          }
+          last = buffer[len - 1];
+
+          if (lines > admission.getMaxLines()) {
+            return "more than " + admission.getMaxLines() + " lines";
+          }
+
+          len = Math.max(ins.read(buffer), 0);
+        }
+
+        if (last != '\n') {
+          ++lines;
+        }
+
+        if (lines > admission.getMaxLines()) {
+          return "more than " + admission.getMaxLines() + " lines";
+        }
+      }
+    }
+
+    return null;
+  }
+
+  public Blame blame(final String file, final BlameBudget budget) throws Exception {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' is null");
+    }
+
+    if (budget == null) {
+      throw new NullPointerException("argument 'budget' is null");
+    }
+
+    final ObjectId head = repository.resolve(Constants.HEAD);
+
+    try (final BlameGenerator generator = new BlameGenerator(repository, file);
+      final RevWalk revWalk = new RevWalk(repository)) {
+      generator.setFollowFileRenames(budget.isFollowFileRenames());
+
+      if (budget.isFollowFileRenames()) {
+        final RenameDetector renameDetector = generator.getRenameDetector();
+        renameDetector.setRenameScore(budget.getRenameScore());
+        if (budget.getRenameLimit() > 0) {
+          renameDetector.setRenameLimit(budget.getRenameLimit());
+        }
+      }
+
+      generator.push(null, head);
+
+      final BlameResult result = BlameResult.create(generator);
+      if (result == null) {
+        throw new RuntimeException("[ERROR] failed to blame [" + file + "]: file not found in [" + Constants.HEAD + "]");
+      }
+
+      final long deadline = (budget.getMaxMillis() > 0) ? (System.currentTimeMillis() + budget.getMaxMillis()) : Long.MAX_VALUE;
+      final long horizon = (budget.getMaxAgeMs() > 0) ? (System.currentTimeMillis() - budget.getMaxAgeMs()) : Long.MIN_VALUE;
+
+      // regions come out of the generator newest commit first, so the last commit seen
+      // is the oldest point in history the blame has reached
+      RevCommit boundary = revWalk.parseCommit(head);
+      final Set<ObjectId> commits = new HashSet<>();
+
+      boolean isTruncated = false;
+      while (result.computeNext() >= 0) {
+        final RevCommit sourceCommit = generator.getSourceCommit();
+        if (sourceCommit != null) {
+          boundary = sourceCommit;
+          commits.add(sourceCommit.copy());
+
+          if ((sourceCommit.getCommitTime() * 1000L) < horizon) {
+            isTruncated = true;
+            break;
+          }
+        }
+
+        if ((budget.getMaxCommits() > 0) && (commits.size() >= budget.getMaxCommits())) {
+          isTruncated = true;
+          break;
+        }
+
+        if (System.currentTimeMillis() >= deadline) {
+          isTruncated = true;
+          break;
+        }
+      }
+
+      if (isTruncated) {
+        boolean isComplete = true;
+        for (int idx = 0; idx < result.getResultContents().size(); ++idx) {
+          if (!result.hasSourceData(idx)) {
+            isComplete = false;
+            break;
+          }
+        }
+        isTruncated = !isComplete;
+      }
+
+      if (boundary.getRawBuffer() == null) {
+        boundary = revWalk.parseCommit(boundary);
+      }
+
+      return new Blame(result, boundary, isTruncated);
+    }
+  }
+
   public CheckoutResult checkout(final String branch) throws Exception {
     if (branch == null) {
       throw new NullPointerException("argument 'branch' is null");
@@ -153,7 +354,203 @@ public final class JGit {
     cmdCommit.setCommitter(committer);
     cmdCommit.setMessage(message);
 
-    return cmdCommit.call();
+    final RevCommit commit = cmdCommit.call();
+    addToCommitGraph(commit);
+
+    return commit;
+  }
+
+  // writes a commit for an already known tree (eg: a reused merge result) without touching
+  // the index or any ref, the caller moves the branch
+  public RevCommit commit(final AnyObjectId tree, final List<? extends AnyObjectId> parents, final PersonIdent author,
+      final PersonIdent committer, final String message) throws Exception {
+    if (tree == null) {
+      throw new NullPointerException("argument 'tree' is null");
+    }
+
+    if (parents == null) {
+      throw new NullPointerException("argument 'parents' is null");
+    }
+
+    if (message == null) {
+      throw new NullPointerException("argument 'message' is null");
+    }
+
+    final CommitBuilder commitBuilder = new CommitBuilder();
+    commitBuilder.setTreeId(tree);
+    commitBuilder.setParentIds(parents);
+    commitBuilder.setAuthor((author != null) ? author : new PersonIdent(repository));
+    commitBuilder.setCommitter((committer != null) ? committer : new PersonIdent(repository));
+    commitBuilder.setMessage(message);
+
+    final ObjectId commitId;
+    try (final ObjectInserter inserter = repository.newObjectInserter()) {
+      commitId = inserter.insert(commitBuilder);
+      inserter.flush();
+    }
+
+    final RevCommit commit;
+    try (final RevWalk revWalk = new RevWalk(repository)) {
+      commit = revWalk.parseCommit(commitId);
+    }
+    addToCommitGraph(commit);
+
+    return commit;
+  }
+
+  public boolean hasObject(final AnyObjectId objectId) {
+    if (objectId == null) {
+      throw new NullPointerException("argument 'objectId' is null");
+    }
+
+    return repository.hasObject(objectId);
+  }
+
+  // the best common ancestor of 'lhs' and 'rhs', or null when they share no history
+  public ObjectId getMergeBase(final AnyObjectId lhs, final AnyObjectId rhs) throws Exception {
+    if (lhs == null) {
+      throw new NullPointerException("argument 'lhs' is null");
+    }
+
+    if (rhs == null) {
+      throw new NullPointerException("argument 'rhs' is null");
+    }
+
+    if (isInCommitGraph(lhs, rhs)) {
+      return commitGraph.getMergeBase(lhs, rhs);
+    }
+
+    try (final RevWalk revWalk = new RevWalk(repository)) {
+      revWalk.setRevFilter(RevFilter.MERGE_BASE);
+      revWalk.markStart(revWalk.parseCommit(lhs));
+      revWalk.markStart(revWalk.parseCommit(rhs));
+
+      final RevCommit base = revWalk.next();
+      return (base == null) ? null : base.copy();
+    }
+  }
+
+  // whether 'ancestor' is reachable from 'descendant' (a commit is its own ancestor)
+  public boolean isAncestor(final AnyObjectId ancestor, final AnyObjectId descendant) throws Exception {
+    if (ancestor == null) {
+      throw new NullPointerException("argument 'ancestor' is null");
+    }
+
+    if (descendant == null) {
+      throw new NullPointerException("argument 'descendant' is null");
+    }
+
+    if (isInCommitGraph(ancestor, descendant)) {
+      return commitGraph.isAncestor(ancestor, descendant);
+    }
+
+    try (final RevWalk revWalk = new RevWalk(repository)) {
+      return revWalk.isMergedInto(revWalk.parseCommit(ancestor), revWalk.parseCommit(descendant));
+    }
+  }
+
+  // keeps the commit graph of local and remote tracking branches in memory (and in 'file' between runs,
+  // when given), so ancestry and merge base queries no longer parse commits
+  public void openCommitGraph(final File file) throws Exception {
+    final long startedMs = System.currentTimeMillis();
+
+    commitGraphFile = file;
+    commitGraph = CommitGraph.load(file);
+    refreshCommitGraph();
+
+    commitGraphLoadMillis = System.currentTimeMillis() - startedMs;
+  }
+
+  public Map<String, Long> getCommitGraphStats() {
+    final Map<String, Long> stats = new LinkedHashMap<>();
+
+    if (commitGraph != null) {
+      stats.put("commits", Long.valueOf(commitGraph.size()));
+      stats.put("loadMillis", Long.valueOf(commitGraphLoadMillis));
+      stats.put("ancestryQueries", Long.valueOf(commitGraph.getAncestryQueries()));
+      stats.put("mergeBaseQueries", Long.valueOf(commitGraph.getMergeBaseQueries()));
+      stats.put("mergeBaseHits", Long.valueOf(commitGraph.getMergeBaseHits()));
+      stats.put("misses", Long.valueOf(commitGraphMisses.get()));
+    }
+
+    return stats;
+  }
+
+  // adds commits of branches (local and remote tracking) the graph has not seen yet
+  private void refreshCommitGraph() throws Exception {
+    final List<ObjectId> tips = new ArrayList<>();
+
+    for (final String prefix: new String[] {Constants.R_HEADS, Constants.R_REMOTES}) {
+      for (final Ref ref: repository.getRefDatabase().getRefs(prefix).values()) {
+        if ((ref.getObjectId() != null) && !ref.isSymbolic()) {
+          tips.add(ref.getObjectId());
+        }
+      }
+    }
+
+    if ((commitGraph.add(repository, tips) > 0) && (commitGraphFile != null)) {
+      commitGraph.save(commitGraphFile);
+    }
+  }
+
+  // commits made here have their parents in the graph already, adding one parses only itself
+  private void addToCommitGraph(final RevCommit commit) throws Exception {
+    if (commitGraph != null) {
+      commitGraph.add(repository, Collections.singletonList(commit));
+    }
+  }
+
+  // queries never grow the graph (it is filled when opened, after every fetch and by commits made here), one
+  // about a commit it does not know, eg: an unfetched revision, is answered by a plain revision walk instead
+  private boolean isInCommitGraph(final AnyObjectId lhs, final AnyObjectId rhs) {
+    if (commitGraph == null) {
+      return false;
+    }
+
+    if (commitGraph.contains(lhs) && commitGraph.contains(rhs)) {
+      return true;
+    }
+
+    commitGraphMisses.incrementAndGet();
+    return false;
+  }
+
+  // paths whose content (or mode) differs between the trees of commits 'from' and 'to', looking
+  // only at 'paths' when given; a plain tree diff, renames are not detected
+  public Set<String> getChangedPaths(final AnyObjectId from, final AnyObjectId to, final Collection<String> paths) throws Exception {
+    if (from == null) {
+      throw new NullPointerException("argument 'from' is null");
+    }
+
+    if (to == null) {
+      throw new NullPointerException("argument 'to' is null");
+    }
+
+    final Set<String> changed = new HashSet<>();
+
+    if ((paths != null) && paths.isEmpty()) {
+      return changed;
+    }
+
+    try (final RevWalk revWalk = new RevWalk(repository);
+      final TreeWalk treeWalk = new TreeWalk(repository)) {
+      treeWalk.addTree(revWalk.parseCommit(from).getTree());
+      treeWalk.addTree(revWalk.parseCommit(to).getTree());
+      treeWalk.setRecursive(true);
+
+      if (paths == null) {
+        treeWalk.setFilter(TreeFilter.ANY_DIFF);
+      }
+      else {
+        treeWalk.setFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(paths), TreeFilter.ANY_DIFF));
+      }
+
+      while (treeWalk.next()) {
+        changed.add(treeWalk.getPathString());
+      }
+    }
+
+    return changed;
   }
 
   public FetchResult fetch(final String remote, final List<String> refSpecs, final String username, final String password) throws Exception {
@@ -161,7 +558,7 @@ public final class JGit {
     cmdFetch.setCheckFetchedObjects(true);
 
     if (isUseProgressMonitor) {
-      cmdFetch.setProgressMonitor(new TextProgressMonitor(new PrintWriter(System.out)));
+      cmdFetch.setProgressMonitor(Log.newProgressMonitor());
     }
 
     if (remote != null) {
@@ -187,6 +584,10 @@ public final class JGit {
 
     final FetchResult resFetch = cmdFetch.call();
 
+    if (commitGraph != null) {
+      refreshCommitGraph();
+    }
+
     if (credentialsProvider != null) {
       ((UsernamePasswordCredentialsProvider) credentialsProvider).clear();
     }
@@ -208,8 +609,24 @@ public final class JGit {
       throw new RuntimeException("[ERROR] failed to checkout branch [" + branch + "] [" + resCheckout.getStatus() + "]");
     }
 
+    final ObjectId remoteTip = repository.resolve(remote + "/" + branch);
+
+    // answered from the commit graph without a merge when the branch already contains the remote
+    // tip or cannot be fast-forwarded to it
+    if ((commitGraph != null) && (remoteTip != null)) {
+      final ObjectId head = repository.resolve(Constants.HEAD);
+
+      if (isAncestor(remoteTip, head)) {
+        return head;
+      }
+
+      if (!isAncestor(head, remoteTip)) {
+        throw new RuntimeException("[ERROR] failed to update branch [" + branch + "] with remote [" + remote + "] [" + MergeResult.MergeStatus.ABORTED + "]");
+      }
+    }
+
     final MergeCommand cmdMerge = git.merge();
-    cmdMerge.include(repository.resolve(remote + "/" + branch));
+    cmdMerge.include(remoteTip);
     cmdMerge.setFastForward(FastForwardMode.FF_ONLY);
 
     final MergeResult resMerge = cmdMerge.call();
@@ -220,6 +637,14 @@ public final class JGit {
     return resMerge.getNewHead();
   }
 
+  public Ref reset(final AnyObjectId objectId) throws Exception {
+    if (objectId == null) {
+      throw new NullPointerException("argument 'objectId' is null");
+    }
+
+    return git.reset().setMode(ResetType.HARD).setRef(objectId.name()).call();
+  }
+
   public Iterable<RevCommit> log(final AnyObjectId start, final int maxCount) throws Exception {
     if (start == null) {
       throw new NullPointerException("argument 'start' is null");
@@ -277,6 +702,20 @@ public final class JGit {
     return sb.toString();
   }
 
+  // caller must close the returned walk
+  public CommitNoteWalk logWithNotes(final AnyObjectId include, final AnyObjectId exclude) throws Exception {
+    return logWithNotes(include, exclude, Integer.MAX_VALUE);
+  }
+
+  // caller must close the returned walk, only the first 'bodies' entries have their commit body parsed
+  public CommitNoteWalk logWithNotes(final AnyObjectId include, final AnyObjectId exclude, final int bodies) throws Exception {
+    if (include == null) {
+      throw new NullPointerException("argument 'include' is null");
+    }
+
+    return new CommitNoteWalk(repository, include, exclude, bodies);
+  }
+
   public MergeResult merge(final String from, final String to, final String message) throws Exception {
     if (from == null) {
       throw new NullPointerException("argument 'from' is null");
@@ -295,7 +734,7 @@ public final class JGit {
       throw new RuntimeException("[ERROR] failed to checkout branch [" + to + "] [" + resCheckout.getStatus() + "]");
     }
     else {
-      System.out.println(">> Checked out branch [" + to + "] ...\n");
+      Log.println(">> Checked out branch [" + to + "] ...\n");
     }
 
     final MergeCommand cmdMerge = git.merge();
@@ -307,7 +746,7 @@ public final class JGit {
     cmdMerge.setFastForward(FastForwardMode.NO_FF);
     cmdMerge.setStrategy(MergeStrategy.RECURSIVE);
 
-    System.out.println(">> Starting the merge, please be patient ...\n");
+    Log.println(">> Starting the merge, please be patient ...\n");
     return cmdMerge.call();
   }
 
@@ -315,29 +754,89 @@ public final class JGit {
     final StatusCommand cmdStatus = git.status();
 
     if (isUseProgressMonitor) {
-      cmdStatus.setProgressMonitor(new TextProgressMonitor(new PrintWriter(System.out)));
+      cmdStatus.setProgressMonitor(Log.newProgressMonitor());
     }
 
     return cmdStatus.call();
   }
 
-  private String getSvnRevision(final String expression) throws Exception {
-    if (expression == null) {
-      throw new NullPointerException("argument 'expression' is null");
+  // unmerged (stage 1-3) entries of the index, read straight from the DirCache
+  // without the worktree walk a full status would do
+  public Map<String, StageState> getConflicts() throws Exception {
+    final Map<String, StageState> conflicts = new TreeMap<>();
+
+    final DirCache dirCache = repository.readDirCache();
+
+    String path = null;
+    int mask = 0;
+
+    for (int idx = 0; idx < dirCache.getEntryCount(); ++idx) {
+      final DirCacheEntry entry = dirCache.getEntry(idx);
+      if (entry.getStage() == DirCacheEntry.STAGE_0) {
+        continue;
+      }
+
+      if (!entry.getPathString().equals(path)) {
+        if (path != null) {
+          conflicts.put(path, toStageState(mask));
+        }
+        path = entry.getPathString();
+        mask = 0;
+      }
+
+      mask |= 1 << (entry.getStage() - 1);
+    }
+
+    if (path != null) {
+      conflicts.put(path, toStageState(mask));
     }
 
-    final String notes = note(log(repository.resolve(expression), 1).iterator().next());
+    return conflicts;
+  }
+
+  private static StageState toStageState(final int mask) {
+    switch (mask) {
+      case 1:
+        return StageState.BOTH_DELETED;
+      case 2:
+        return StageState.ADDED_BY_US;
+      case 3:
+        return StageState.DELETED_BY_THEM;
+      case 4:
+        return StageState.ADDED_BY_THEM;
+      case 5:
+        return StageState.DELETED_BY_US;
+      case 6:
+        return StageState.BOTH_ADDED;
+      case 7:
+        return StageState.BOTH_MODIFIED;
+      default:
+        throw new RuntimeException("[ERROR] invalid index stage mask [" + mask + "]");
+    }
+  }
 
-    final Pattern pattern = Pattern.compile("\\A\\s*(r\\d+)\\s+.+", Pattern.CASE_INSENSITIVE);
-    final Matcher matcher = pattern.matcher(notes);
+  private String getSvnRevision(final String expression) throws Exception {
+    final String revision = findSvnRevision(expression);
 
-    if (matcher.matches()) {
-      return matcher.group(1);
+    if (revision != null) {
+      return revision;
     }
 
     throw new RuntimeException("[ERROR] failed to get SVN revision for [" + expression + "]");
   }
 
+  public String findSvnRevision(final String expression) throws Exception {
+    if (expression == null) {
+      throw new NullPointerException("argument 'expression' is null");
+    }
+
+    return parseSvnRevision(note(log(resolve(expression), 1).iterator().next()));
+  }
+
+  public static String parseSvnRevision(final String notes) {
+    return Expression.parseSvnRevision(notes);
+  }
+
   public Map<String, String> parse(final String expression, final String remote) throws Exception {
     if (expression == null) {
       throw new NullPointerException("argument 'expression' is null");
@@ -349,18 +848,17 @@ public final class JGit {
 
     final Map<String, String> map = new HashMap<>();
 
-    final Pattern pattern = Pattern.compile("\\A\\s*(\\S+?)\\s*\\:\\s*(svn|git)\\s*\\:(\\S+)\\s*\\Z", Pattern.CASE_INSENSITIVE);
-    final Matcher matcher = pattern.matcher(expression);
+    final Expression parsed = Expression.parse(expression);
 
-    if (!matcher.matches()) {
+    if (!parsed.isRevision()) {
       map.put("mergeFromBranch", expression);
       map.put("mergeFromRevision", getSvnRevision(remote + "/" + expression));
       return map;
     }
 
-    String branch = matcher.group(1);
-    String type = matcher.group(2);
-    String rev = matcher.group(3);
+    String branch = parsed.getBranch();
+    String type = parsed.getType();
+    String rev = parsed.getRevision();
 
     map.put("mergeFromBranch", branch);
 
@@ -393,7 +891,7 @@ public final class JGit {
         repository.open(note.getData()).copyTo(os);
 
         final String data = os.toString(ENCODING);
-        if (data.matches("\\A\\s*" + rev + "\\s*.+\\Z")) {
+        if (rev.equalsIgnoreCase(Expression.parseSvnRevision(data))) {
           map.put("mergeFromObjectId", note.getName());
           return map;
         }
@@ -426,33 +924,103 @@ public final class JGit {
       throw new NullPointerException("argument 'branch' is null");
     }
 
-    final PushCommand cmdPush = git.push();
+    return Collections.singletonList(push(Collections.singletonList(branch), remote, username, password));
+  }
 
-    if (remote != null) {
-      cmdPush.setRemote(remote);
+  // pushes all branches over a single transport connection, after checking in-process that
+  // the repository is in a safe state and that every branch fast-forwards its remote tracking
+  // ref; the tracking ref is also sent as the expected old value, so a branch that moved on the
+  // remote since the last fetch is rejected instead of overwritten
+  public PushResult push(final Collection<String> branches, final String remote, final String username, final String password) throws Exception {
+    if (branches == null) {
+      throw new NullPointerException("argument 'branches' is null");
     }
 
-    cmdPush.setRefSpecs(new RefSpec(branch + ":" + branch));
-    cmdPush.setForce(false);
-    cmdPush.setOutputStream(System.out);
+    if (remote == null) {
+      throw new NullPointerException("argument 'remote' is null");
+    }
 
-    if (isUseProgressMonitor) {
-      cmdPush.setProgressMonitor(new TextProgressMonitor(new PrintWriter(System.out)));
+    if (!isSafeState()) {
+      throw new RuntimeException("[ERROR] pre-push check failed, repository is in state [" + repository.getRepositoryState() + "]");
+    }
+
+    final RemoteConfig remoteConfig = new RemoteConfig(repository.getConfig(), remote);
+    final List<RemoteRefUpdate> updates = new ArrayList<>();
+
+    for (final String branch: branches) {
+      final String refName = Constants.R_HEADS + branch;
+
+      final Ref ref = repository.getRef(refName);
+      if (ref == null) {
+        throw new RuntimeException("[ERROR] pre-push check failed, branch not found [" + branch + "]");
+      }
+
+      final String trackingRefName = getTrackingRefName(remoteConfig, refName);
+      final Ref trackingRef = (trackingRefName == null) ? null : repository.getRef(trackingRefName);
+
+      ObjectId expectedOldObjectId = null;
+      if (trackingRef != null) {
+        expectedOldObjectId = trackingRef.getObjectId();
+
+        if (!isAncestor(expectedOldObjectId, ref.getObjectId())) {
+          throw new RuntimeException("[ERROR] pre-push check failed, [" + branch + "] does not fast-forward [" + shortenRefName(trackingRefName) + "]");
+        }
+      }
+
+      updates.add(new RemoteRefUpdate(repository, refName, refName, false, trackingRefName, expectedOldObjectId));
     }
 
+    final Transport transport = Transport.open(repository, remoteConfig);
+
     CredentialsProvider credentialsProvider = null;
     if ((username != null) && (password != null)) {
       credentialsProvider = new UsernamePasswordCredentialsProvider(username, password);
-      cmdPush.setCredentialsProvider(credentialsProvider);
+      transport.setCredentialsProvider(credentialsProvider);
     }
 
-    final Iterable<PushResult> resPushes = cmdPush.call();
+    try {
+      final ProgressMonitor monitor = isUseProgressMonitor ? Log.newProgressMonitor() : NullProgressMonitor.INSTANCE;
+      return transport.push(monitor, updates, Log.newOutputStream("remote"));
+    }
+    finally {
+      transport.close();
 
-    if (credentialsProvider != null) {
-      ((UsernamePasswordCredentialsProvider) credentialsProvider).clear();
+      if (credentialsProvider != null) {
+        ((UsernamePasswordCredentialsProvider) credentialsProvider).clear();
+      }
     }
+  }
 
-    return resPushes;
+  private static String getTrackingRefName(final RemoteConfig remoteConfig, final String refName) {
+    for (final RefSpec refSpec: remoteConfig.getFetchRefSpecs()) {
+      if (refSpec.matchSource(refName)) {
+        return refSpec.expandFromSource(refName).getDestination();
+      }
+    }
+
+    return null;
+  }
+
+  public boolean isSafeState() {
+    return repository.getRepositoryState() == RepositoryState.SAFE;
+  }
+
+  public RepoStatistics getStatistics() throws Exception {
+    return new GC((FileRepository) repository).getStatistics();
+  }
+
+  public Collection<PackFile> gc() throws Exception {
+    final PackConfig packConfig = new PackConfig(repository);
+    packConfig.setBuildBitmaps(true);
+
+    final GC gc = new GC((FileRepository) repository);
+    gc.setPackConfig(packConfig);
+
+    if (isUseProgressMonitor) {
+      gc.setProgressMonitor(Log.newProgressMonitor());
+    }
+
+    return gc.gc();
   }
 
   public void close() {
@@ -468,6 +1036,34 @@ public final class JGit {
     return new PersonIdent(name, email);
   }
 
+  // JGit 4.0 exposes no public statistics for the pack window cache, so the
+  // package private counters are read reflectively; an empty map is returned
+  // when they are not available
+  public static Map<String, Long> getWindowCacheStats() {
+    final Map<String, Long> stats = new LinkedHashMap<>();
+
+    try {
+      final Class<?> clazz = Class.forName("org.eclipse.jgit.internal.storage.file.WindowCache");
+
+      final Method getInstance = clazz.getDeclaredMethod("getInstance");
+      getInstance.setAccessible(true);
+      final Object cache = getInstance.invoke(null);
+
+      final Method getOpenFiles = clazz.getDeclaredMethod("getOpenFiles");
+      getOpenFiles.setAccessible(true);
+      stats.put("openFiles", ((Number) getOpenFiles.invoke(cache)).longValue());
+
+      final Method getOpenBytes = clazz.getDeclaredMethod("getOpenBytes");
+      getOpenBytes.setAccessible(true);
+      stats.put("openBytes", ((Number) getOpenBytes.invoke(cache)).longValue());
+    }
+    catch (Exception ex) {
+      stats.clear();
+    }
+
+    return stats;
+  }
+
   public static String shortenRefName(final String name) {
     if (name == null) {
       throw new NullPointerException("argument 'name' is null");
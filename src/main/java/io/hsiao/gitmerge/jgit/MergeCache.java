@@ -0,0 +1,198 @@
+package io.hsiao.gitmerge.jgit;
+
+import io.hsiao.gitmerge.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.IndexDiff.StageState;
+import org.eclipse.jgit.lib.ObjectId;
+
+// Content addressed cache of merge results
+//
+// Entries are keyed by the two input commits and the merge options, so the resulting
+// tree (and the conflicts it was committed with) can be reused for a repeated merge
+// of the same pair. The forked 'git merge' also depends on the git version, rerere
+// and the merge drivers configured in the repository; those are not part of the key,
+// the cache assumes they stay the same (clear 'dir' after changing them). Entries
+// are small property files, the least recently used ones are dropped once there
+// are more than 'maxEntries'.
+public final class MergeCache {
+  private static final String ENTRY_SUFFIX = ".merge";
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  private static final String KEY_OURS = "ours";
+  private static final String KEY_THEIRS = "theirs";
+  private static final String KEY_OPTIONS = "options";
+  private static final String KEY_TREE = "tree";
+  private static final String PREFIX_CONFLICT = "conflict.";
+
+  private final File dir;
+  private final int maxEntries;
+
+  public MergeCache(final File dir, final int maxEntries) throws Exception {
+    if (dir == null) {
+      throw new NullPointerException("argument 'dir' is null");
+    }
+
+    this.dir = FileUtils.mkdir(dir);
+    this.maxEntries = maxEntries;
+  }
+
+  // returns the cached result for merging 'theirs' into 'ours', or null when there is none
+  public Entry get(final AnyObjectId ours, final AnyObjectId theirs, final String options) throws Exception {
+    if (ours == null) {
+      throw new NullPointerException("argument 'ours' is null");
+    }
+
+    if (theirs == null) {
+      throw new NullPointerException("argument 'theirs' is null");
+    }
+
+    if (options == null) {
+      throw new NullPointerException("argument 'options' is null");
+    }
+
+    final File file = getFile(ours, theirs, options);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    final Properties props = new Properties();
+    try (final InputStream ins = new FileInputStream(file)) {
+      props.load(ins);
+    }
+
+    if (!ours.name().equals(props.getProperty(KEY_OURS)) || !theirs.name().equals(props.getProperty(KEY_THEIRS)) ||
+        !options.equals(props.getProperty(KEY_OPTIONS))) {
+      return null;
+    }
+
+    final Map<String, StageState> conflicts = new TreeMap<>();
+    for (final String name: props.stringPropertyNames()) {
+      if (name.startsWith(PREFIX_CONFLICT)) {
+        conflicts.put(name.substring(PREFIX_CONFLICT.length()), StageState.valueOf(props.getProperty(name)));
+      }
+    }
+
+    final String tree = props.getProperty(KEY_TREE, "");
+
+    file.setLastModified(System.currentTimeMillis());
+
+    return new Entry(tree.isEmpty() ? null : ObjectId.fromString(tree), conflicts);
+  }
+
+  // records the result of merging 'theirs' into 'ours'; a null 'tree' records an aborted merge
+  public void put(final AnyObjectId ours, final AnyObjectId theirs, final String options, final AnyObjectId tree,
+      final Map<String, StageState> conflicts) throws Exception {
+    if (ours == null) {
+      throw new NullPointerException("argument 'ours' is null");
+    }
+
+    if (theirs == null) {
+      throw new NullPointerException("argument 'theirs' is null");
+    }
+
+    if (options == null) {
+      throw new NullPointerException("argument 'options' is null");
+    }
+
+    if (conflicts == null) {
+      throw new NullPointerException("argument 'conflicts' is null");
+    }
+
+    final Properties props = new Properties();
+    props.setProperty(KEY_OURS, ours.name());
+    props.setProperty(KEY_THEIRS, theirs.name());
+    props.setProperty(KEY_OPTIONS, options);
+    props.setProperty(KEY_TREE, (tree == null) ? "" : tree.name());
+
+    for (final Map.Entry<String, StageState> conflict: conflicts.entrySet()) {
+      props.setProperty(PREFIX_CONFLICT + conflict.getKey(), conflict.getValue().name());
+    }
+
+    final File file = getFile(ours, theirs, options);
+    final File partial = new File(dir, file.getName() + PARTIAL_SUFFIX);
+
+    try (final OutputStream os = new FileOutputStream(partial)) {
+      props.store(os, null);
+    }
+
+    Files.move(partial.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+    prune();
+  }
+
+  private void prune() throws Exception {
+    if (maxEntries <= 0) {
+      return;
+    }
+
+    final File[] files = dir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(final File parent, final String name) {
+        return name.endsWith(ENTRY_SUFFIX);
+      }
+    });
+
+    if ((files == null) || (files.length <= maxEntries)) {
+      return;
+    }
+
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(final File lhs, final File rhs) {
+        return Long.compare(lhs.lastModified(), rhs.lastModified());
+      }
+    });
+
+    for (final File file: Arrays.asList(files).subList(0, files.length - maxEntries)) {
+      Files.deleteIfExists(file.toPath());
+    }
+  }
+
+  private File getFile(final AnyObjectId ours, final AnyObjectId theirs, final String options) throws Exception {
+    final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    digest.update((ours.name() + " " + theirs.name() + " " + options).getBytes("UTF-8"));
+
+    final StringBuilder sb = new StringBuilder();
+    for (final byte b: digest.digest()) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+
+    return new File(dir, sb.append(ENTRY_SUFFIX).toString());
+  }
+
+  public static final class Entry {
+    private final ObjectId tree;
+    private final Map<String, StageState> conflicts;
+
+    private Entry(final ObjectId tree, final Map<String, StageState> conflicts) {
+      this.tree = tree;
+      this.conflicts = conflicts;
+    }
+
+    // null when the merge was aborted, only the conflicts are known then
+    public ObjectId getTree() {
+      return tree;
+    }
+
+    public Map<String, StageState> getConflicts() {
+      return Collections.unmodifiableMap(conflicts);
+    }
+  }
+}
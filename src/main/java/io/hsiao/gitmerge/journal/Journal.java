@@ -0,0 +1,180 @@
+package io.hsiao.gitmerge.journal;
+
+import io.hsiao.gitmerge.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+// Per request checkpoint journal
+//
+// One file per request (keyed by a digest of the request), rewritten atomically
+// every time a stage completes, so a rerun of the same request can skip the
+// stages a failed run already got through and restore their outputs.
+public final class Journal {
+  private static final String JOURNAL_SUFFIX = ".journal";
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  private static final String KEY_REQUEST = "request";
+  private static final String KEY_CREATED = "created";
+  private static final String KEY_STAGES = "stages";
+  private static final String PREFIX_STAGE = "stage.";
+
+  private final File file;
+  private final String request;
+  private final Properties props;
+
+  private Journal(final File file, final String request, final Properties props) {
+    this.file = file;
+    this.request = request;
+    this.props = props;
+  }
+
+  // opens the journal left by a previous run of 'request', or starts a new one when there is none
+  // (or when it is older than 'maxAgeMs', 0 means no limit)
+  public static Journal open(final File dir, final String request, final long maxAgeMs) throws Exception {
+    if (dir == null) {
+      throw new NullPointerException("argument 'dir' is null");
+    }
+
+    if (request == null) {
+      throw new NullPointerException("argument 'request' is null");
+    }
+
+    final File file = new File(FileUtils.mkdir(dir), digest(request) + JOURNAL_SUFFIX);
+    final Properties props = new Properties();
+
+    if (file.isFile()) {
+      try (final InputStream ins = new FileInputStream(file)) {
+        props.load(ins);
+      }
+
+      final long created = Long.parseLong(props.getProperty(KEY_CREATED, "0"));
+      if (!request.equals(props.getProperty(KEY_REQUEST)) || ((maxAgeMs > 0) && (System.currentTimeMillis() - created > maxAgeMs))) {
+        props.clear();
+      }
+    }
+
+    if (props.isEmpty()) {
+      props.setProperty(KEY_REQUEST, request);
+      props.setProperty(KEY_CREATED, Long.toString(System.currentTimeMillis()));
+    }
+
+    return new Journal(file, request, props);
+  }
+
+  public boolean isResumed() {
+    return !getStages().isEmpty();
+  }
+
+  public boolean isDone(final String stage) {
+    if (stage == null) {
+      throw new NullPointerException("argument 'stage' is null");
+    }
+
+    return getStages().contains(stage);
+  }
+
+  public List<String> getStages() {
+    final List<String> stages = new ArrayList<>();
+
+    for (final String stage: props.getProperty(KEY_STAGES, "").split(",")) {
+      if (!stage.isEmpty()) {
+        stages.add(stage);
+      }
+    }
+
+    return stages;
+  }
+
+  public String get(final String name) {
+    if (name == null) {
+      throw new NullPointerException("argument 'name' is null");
+    }
+
+    return props.getProperty(PREFIX_STAGE + name);
+  }
+
+  // returns all outputs below 'prefix', keyed by the rest of their name
+  public Map<String, String> getAll(final String prefix) {
+    if (prefix == null) {
+      throw new NullPointerException("argument 'prefix' is null");
+    }
+
+    final Map<String, String> values = new TreeMap<>();
+
+    for (final String name: props.stringPropertyNames()) {
+      if (name.startsWith(PREFIX_STAGE + prefix)) {
+        values.put(name.substring(PREFIX_STAGE.length() + prefix.length()), props.getProperty(name));
+      }
+    }
+
+    return values;
+  }
+
+  // outputs are kept in memory until the stage producing them completes
+  public void put(final String name, final String value) {
+    if (name == null) {
+      throw new NullPointerException("argument 'name' is null");
+    }
+
+    if (value == null) {
+      props.remove(PREFIX_STAGE + name);
+    }
+    else {
+      props.setProperty(PREFIX_STAGE + name, value);
+    }
+  }
+
+  public void complete(final String stage) throws Exception {
+    if (stage == null) {
+      throw new NullPointerException("argument 'stage' is null");
+    }
+
+    if (!isDone(stage)) {
+      final String stages = props.getProperty(KEY_STAGES, "");
+      props.setProperty(KEY_STAGES, stages.isEmpty() ? stage : (stages + "," + stage));
+    }
+
+    final File partial = new File(file.getParentFile(), file.getName() + PARTIAL_SUFFIX);
+
+    try (final FileOutputStream fos = new FileOutputStream(partial)) {
+      props.store(fos, null);
+      fos.getFD().sync();
+    }
+
+    Files.move(partial.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  // forgets every completed stage, eg: when the repository no longer matches the journal
+  public void reset() throws Exception {
+    props.clear();
+    props.setProperty(KEY_REQUEST, request);
+    props.setProperty(KEY_CREATED, Long.toString(System.currentTimeMillis()));
+
+    Files.deleteIfExists(file.toPath());
+  }
+
+  public void delete() throws Exception {
+    Files.deleteIfExists(file.toPath());
+  }
+
+  private static String digest(final String str) throws Exception {
+    final StringBuilder sb = new StringBuilder();
+
+    for (final byte b: MessageDigest.getInstance("SHA-1").digest(str.getBytes("UTF-8"))) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+
+    return sb.toString();
+  }
+}
@@ -0,0 +1,57 @@
+package io.hsiao.gitmerge.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Splits bytes written to it into lines (on '\n' or '\r') and logs each line
+final class LineOutputStream extends OutputStream {
+  private final String source;
+  private final ByteArrayOutputStream line;
+
+  LineOutputStream(final String source) {
+    if (source == null) {
+      throw new NullPointerException("argument 'source' is null");
+    }
+
+    this.source = source;
+    this.line = new ByteArrayOutputStream();
+  }
+
+  @Override
+  public synchronized void write(final int b) {
+    if ((b == '\n') || (b == '\r')) {
+      emit();
+    }
+    else {
+      line.write(b);
+    }
+  }
+
+  @Override
+  public synchronized void write(final byte[] buffer, final int offset, final int length) {
+    int begin = offset;
+
+    for (int idx = offset; idx < offset + length; ++idx) {
+      if ((buffer[idx] == '\n') || (buffer[idx] == '\r')) {
+        line.write(buffer, begin, idx - begin);
+        emit();
+        begin = idx + 1;
+      }
+    }
+
+    line.write(buffer, begin, offset + length - begin);
+  }
+
+  @Override
+  public synchronized void close() {
+    emit();
+  }
+
+  private void emit() {
+    if (line.size() > 0) {
+      Log.output(source, new String(line.toByteArray(), StandardCharsets.UTF_8));
+      line.reset();
+    }
+  }
+}
@@ -0,0 +1,301 @@
+package io.hsiao.gitmerge.log;
+
+import io.hsiao.gitmerge.utils.JsonWriter;
+import io.hsiao.gitmerge.utils.StringUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+// Process wide console log
+//
+// Until start() is called events are rendered and written synchronously; once
+// started, callers only put events into a bounded ring buffer and a single writer
+// thread renders them (as human readable text or as one JSON object per line)
+// and flushes whenever the buffer runs empty, so workers never contend on stdout.
+public final class Log {
+  public static final String FORMAT_HUMAN = "human";
+  public static final String FORMAT_JSON = "json";
+
+  private static final String ENCODING = "UTF-8";
+  private static final Event POISON = new Event(0, null, null, null, null);
+
+  private static final Object lock = new Object();
+
+  private static volatile Map<String, String> context = Collections.emptyMap();
+  private static volatile boolean isJson;
+  private static volatile long progressIntervalMs = 1000;
+
+  private static Writer writer;
+  private static BlockingQueue<Event> ring;
+  private static Thread worker;
+
+  private Log() {}
+
+  public static void start(final String format, final int capacity, final long progressIntervalMs) {
+    if (format == null) {
+      throw new NullPointerException("argument 'format' is null");
+    }
+
+    if (!format.equalsIgnoreCase(FORMAT_HUMAN) && !format.equalsIgnoreCase(FORMAT_JSON)) {
+      throw new RuntimeException("[ERROR] invalid log format [" + format + "], expected [" + FORMAT_HUMAN + "] or [" + FORMAT_JSON + "]");
+    }
+
+    synchronized (lock) {
+      if (worker != null) {
+        return;
+      }
+
+      isJson = format.equalsIgnoreCase(FORMAT_JSON);
+      Log.progressIntervalMs = Math.max(progressIntervalMs, 0);
+
+      ring = new ArrayBlockingQueue<>(Math.max(capacity, 16));
+
+      worker = new Thread("log-writer") {
+        @Override
+        public void run() {
+          drain();
+        }
+      };
+
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  // stops the writer thread once every event put so far has been written
+  public static void close() {
+    final Thread thread;
+    final BlockingQueue<Event> queue;
+
+    synchronized (lock) {
+      thread = worker;
+      queue = ring;
+      if (thread == null) {
+        return;
+      }
+
+      worker = null;
+      ring = null;
+    }
+
+    try {
+      queue.put(POISON);
+      thread.join();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public static void setContext(final String key, final String value) {
+    if (key == null) {
+      throw new NullPointerException("argument 'key' is null");
+    }
+
+    synchronized (lock) {
+      final Map<String, String> map = new LinkedHashMap<>(context);
+      if (value == null) {
+        map.remove(key);
+      }
+      else {
+        map.put(key, value);
+      }
+      context = Collections.unmodifiableMap(map);
+    }
+  }
+
+  public static void println(final String text) {
+    if (text == null) {
+      throw new NullPointerException("argument 'text' is null");
+    }
+
+    put(new Event(System.currentTimeMillis(), context, null, null, new String[] {text}));
+  }
+
+  // same arguments as StringUtils.prettyFormat
+  public static void pretty(final String symbol, final int width, final String... messages) {
+    if (symbol == null) {
+      throw new NullPointerException("argument 'symbol' is null");
+    }
+
+    if ((messages == null) || (messages.length == 0)) {
+      return;
+    }
+
+    put(new Event(System.currentTimeMillis(), context, symbol, Integer.valueOf(width), messages));
+  }
+
+  // a line of output from another source, eg: a child process or the remote side of a push
+  public static void output(final String source, final String line) {
+    if (source == null) {
+      throw new NullPointerException("argument 'source' is null");
+    }
+
+    if (line == null) {
+      throw new NullPointerException("argument 'line' is null");
+    }
+
+    put(new Event(System.currentTimeMillis(), context, source, null, new String[] {line}));
+  }
+
+  public static OutputStream newOutputStream(final String source) {
+    return new LineOutputStream(source);
+  }
+
+  public static ProgressMonitor newProgressMonitor() {
+    return new LogProgressMonitor(progressIntervalMs);
+  }
+
+  private static void put(final Event event) {
+    final BlockingQueue<Event> queue = ring;
+
+    if (queue != null) {
+      try {
+        queue.put(event);
+        return;
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    // not started (or interrupted): write in the caller's thread
+    synchronized (lock) {
+      write(event);
+      flush();
+    }
+  }
+
+  private static void drain() {
+    final BlockingQueue<Event> queue = ring;
+    boolean isClosed = false;
+
+    try {
+      while (!isClosed) {
+        Event event = queue.take();
+
+        // write everything that is already buffered, then flush once
+        synchronized (lock) {
+          while (event != null) {
+            if (event == POISON) {
+              isClosed = true;
+            }
+            else {
+              write(event);
+            }
+            event = queue.poll();
+          }
+
+          flush();
+        }
+      }
+    }
+    catch (InterruptedException ex) {
+      synchronized (lock) {
+        flush();
+      }
+    }
+  }
+
+  private static Writer getWriter() {
+    if (writer == null) {
+      try {
+        writer = new BufferedWriter(new OutputStreamWriter(System.out, ENCODING));
+      }
+      catch (IOException ex) {
+        throw new RuntimeException("[ERROR] failed to open console writer: " + ex.getMessage(), ex);
+      }
+    }
+
+    return writer;
+  }
+
+  private static void write(final Event event) {
+    try {
+      getWriter().write(isJson ? renderJson(event) : renderHuman(event));
+    }
+    catch (IOException ex) {
+      // ex.printStackTrace();
+    }
+  }
+
+  private static void flush() {
+    try {
+      getWriter().flush();
+    }
+    catch (IOException ex) {
+      // ex.printStackTrace();
+    }
+  }
+
+  private static String renderHuman(final Event event) {
+    if (event.width != null) {
+      return StringUtils.prettyFormat(event.symbol, event.width.intValue(), event.messages) + "\n";
+    }
+
+    return event.messages[0] + "\n";
+  }
+
+  private static String renderJson(final Event event) throws IOException {
+    final StringWriter sw = new StringWriter();
+    final JsonWriter json = new JsonWriter(sw);
+
+    json.beginObject();
+    json.field("time", event.timestamp);
+
+    if (event.width != null) {
+      json.field("level", event.symbol.equals("*") ? "WARN" : "INFO");
+    }
+    else if (event.symbol != null) {
+      json.field("level", "INFO");
+      json.field("source", event.symbol);
+    }
+    else {
+      json.field("level", "INFO");
+    }
+
+    for (final Map.Entry<String, String> entry: event.context.entrySet()) {
+      json.field(entry.getKey(), entry.getValue());
+    }
+
+    json.field("message", event.messages[0].trim());
+    if (event.messages.length > 1) {
+      json.name("details").beginArray();
+      for (int idx = 1; idx < event.messages.length; ++idx) {
+        json.value(event.messages[idx]);
+      }
+      json.endArray();
+    }
+
+    json.endObject();
+
+    return sw.append('\n').toString();
+  }
+
+  private static final class Event {
+    private final long timestamp;
+    private final Map<String, String> context;
+    private final String symbol;
+    private final Integer width;
+    private final String[] messages;
+
+    private Event(final long timestamp, final Map<String, String> context, final String symbol, final Integer width, final String[] messages) {
+      this.timestamp = timestamp;
+      this.context = context;
+      this.symbol = symbol;
+      this.width = width;
+      this.messages = messages;
+    }
+  }
+}
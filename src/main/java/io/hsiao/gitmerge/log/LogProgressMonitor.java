@@ -0,0 +1,72 @@
+package io.hsiao.gitmerge.log;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+// Progress monitor that logs each task at most once per interval (and once when it ends),
+// instead of rewriting the console line for every unit of work
+final class LogProgressMonitor implements ProgressMonitor {
+  private final long intervalMs;
+
+  private String title;
+  private int totalWork;
+  private int completed;
+  private long lastLoggedMs;
+
+  LogProgressMonitor(final long intervalMs) {
+    this.intervalMs = intervalMs;
+  }
+
+  @Override
+  public void start(final int totalTasks) {
+  }
+
+  @Override
+  public void beginTask(final String title, final int totalWork) {
+    // untitled tasks (eg: of a status scan) are not worth a line
+    this.title = ((title == null) || title.trim().isEmpty()) ? null : title;
+    this.totalWork = totalWork;
+    this.completed = 0;
+    this.lastLoggedMs = System.currentTimeMillis();
+  }
+
+  @Override
+  public void update(final int completed) {
+    this.completed += completed;
+
+    if (title == null) {
+      return;
+    }
+
+    final long now = System.currentTimeMillis();
+    if (now - lastLoggedMs >= intervalMs) {
+      lastLoggedMs = now;
+      Log.output("progress", format(false));
+    }
+  }
+
+  @Override
+  public void endTask() {
+    if (title != null) {
+      Log.output("progress", format(true));
+      title = null;
+    }
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  private String format(final boolean isDone) {
+    final StringBuilder sb = new StringBuilder().append(title).append(": ");
+
+    if (totalWork == UNKNOWN) {
+      sb.append(completed);
+    }
+    else {
+      sb.append(String.format("%3d%% (%d/%d)", (int) (100L * completed / Math.max(totalWork, 1)), completed, totalWork));
+    }
+
+    return isDone ? sb.append(", done").toString() : sb.toString();
+  }
+}
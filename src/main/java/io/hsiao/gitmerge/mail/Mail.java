@@ -1,12 +1,17 @@
 package io.hsiao.gitmerge.mail;
 
+import java.io.File;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
 import javax.mail.Message;
 import javax.mail.Multipart;
+import javax.mail.Part;
 import javax.mail.Session;
 import javax.mail.Transport;
 import javax.mail.internet.MimeBodyPart;
@@ -18,6 +23,9 @@ public final class Mail {
   public static final String RECIPIENT_TYPE_CC = "CC";
   public static final String RECIPIENT_TYPE_TO = "TO";
 
+  // room kept for the message headers and the mime headers of an attachment part
+  public static final long HEADER_RESERVE = 4096;
+
   private final Session session;
   private final MimeMessage message;
   private final MimeBodyPart messageBodyPart;
@@ -119,12 +127,45 @@ public final class Mail {
       throw new NullPointerException("argument 'file' is null");
     }
 
+    attachFile(file, new File(file).getName());
+  }
+
+  public void attachFile(final String file, final String name) throws Exception {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' is null");
+    }
+
+    if (name == null) {
+      throw new NullPointerException("argument 'name' is null");
+    }
+
+    // the data source is only read when the message is written out, so the
+    // attachment is streamed from disk rather than buffered up front
     final MimeBodyPart attachBodyPart = new MimeBodyPart();
-    attachBodyPart.attachFile(file);
+    attachBodyPart.setDataHandler(new DataHandler(new FileDataSource(file)));
+    attachBodyPart.setFileName(name);
+    attachBodyPart.setDisposition(Part.ATTACHMENT);
     attachsBodyPart.add(attachBodyPart);
   }
 
   public void send(final String username, final String password) throws Exception {
+    build();
+
+    Transport.send(message, username, password);
+  }
+
+  public void writeTo(final OutputStream os) throws Exception {
+    if (os == null) {
+      throw new NullPointerException("argument 'os' is null");
+    }
+
+    build();
+
+    message.saveChanges();
+    message.writeTo(os);
+  }
+
+  private void build() throws Exception {
     final Multipart multipart = new MimeMultipart();
     multipart.addBodyPart(messageBodyPart);
 
@@ -133,8 +174,17 @@ public final class Mail {
     }
 
     message.setContent(multipart);
+  }
 
-    Transport.send(message, username, password);
+  // size on the wire of an attachment of 'size' bytes: base64 in 76 character lines, plus HEADER_RESERVE
+  public static long getEncodedSize(final long size) {
+    final long encoded = ((size + 2) / 3) * 4;
+    return encoded + ((encoded + 75) / 76) * 2 + HEADER_RESERVE;
+  }
+
+  // the largest attachment whose encoded size (see getEncodedSize) stays within 'limit', 57 bytes per encoded line
+  public static long getMaxRawSize(final long limit) {
+    return Math.max((limit - HEADER_RESERVE) / 78, 0) * 57;
   }
 
   public static String getMailAddress(final String local, final String domain) {
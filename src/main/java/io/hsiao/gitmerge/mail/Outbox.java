@@ -0,0 +1,246 @@
+package io.hsiao.gitmerge.mail;
+
+import io.hsiao.gitmerge.utils.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedFileInputStream;
+
+// Durable, directory based mail queue: messages are written to disk first and
+// delivered later by a background sender over a single SMTP connection; only one
+// process delivers at a time, and a message the relay keeps rejecting is moved to
+// 'failed/' so it cannot hold up the mail queued behind it
+public final class Outbox {
+  private static final String MESSAGE_SUFFIX = ".eml";
+  private static final String PARTIAL_SUFFIX = ".part";
+  private static final String LOCK_FILE_NAME = ".lock";
+  private static final String FAILED_DIR_NAME = "failed";
+
+  private final File dir;
+  private final Session session;
+  private final int maxRetries;
+  private final long backoffMs;
+
+  private Thread sender;
+  private volatile Exception lastError;
+  private final List<File> failed = Collections.synchronizedList(new ArrayList<File>());
+
+  public Outbox(final File dir, final Properties props, final int maxRetries, final long backoffMs) throws Exception {
+    if (dir == null) {
+      throw new NullPointerException("argument 'dir' is null");
+    }
+
+    if (props == null) {
+      throw new NullPointerException("argument 'props' is null");
+    }
+
+    this.dir = FileUtils.mkdir(dir);
+    this.session = Session.getInstance(props, null);
+    this.maxRetries = Math.max(maxRetries, 0);
+    this.backoffMs = Math.max(backoffMs, 0);
+  }
+
+  public File enqueue(final Mail mail) throws Exception {
+    if (mail == null) {
+      throw new NullPointerException("argument 'mail' is null");
+    }
+
+    final String name = String.format("%d-%d", System.currentTimeMillis(), System.nanoTime());
+    final File partial = new File(dir, name + PARTIAL_SUFFIX);
+    final File queued = new File(dir, name + MESSAGE_SUFFIX);
+
+    try (final OutputStream os = new BufferedOutputStream(new FileOutputStream(partial))) {
+      mail.writeTo(os);
+    }
+
+    // the sender only picks up complete messages, so publish with an atomic rename
+    Files.move(partial.toPath(), queued.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+    return queued;
+  }
+
+  public File[] pending() {
+    final File[] files = dir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(final File parent, final String name) {
+        return name.endsWith(MESSAGE_SUFFIX);
+      }
+    });
+
+    if (files == null) {
+      return new File[0];
+    }
+
+    Arrays.sort(files);
+    return files;
+  }
+
+  public synchronized void start(final String username, final String password) {
+    if ((sender != null) && sender.isAlive()) {
+      return;
+    }
+
+    sender = new Thread("outbox-sender") {
+      @Override
+      public void run() {
+        try {
+          deliver(username, password);
+        }
+        catch (Exception ex) {
+          lastError = ex;
+        }
+      }
+    };
+
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  public synchronized boolean await(final long timeoutMs) throws InterruptedException {
+    if (sender != null) {
+      sender.join(Math.max(timeoutMs, 1));
+      if (sender.isAlive()) {
+        return false;
+      }
+    }
+
+    return pending().length == 0;
+  }
+
+  public Exception getLastError() {
+    return lastError;
+  }
+
+  // messages moved to 'failed/' by this outbox after running out of retries
+  public List<File> getFailed() {
+    synchronized (failed) {
+      return new ArrayList<>(failed);
+    }
+  }
+
+  // delivers the pending messages, unless another process is already delivering from this outbox (then returns 0)
+  public int deliver(final String username, final String password) throws Exception {
+    try (final FileChannel lockChannel = FileChannel.open(new File(dir, LOCK_FILE_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      final FileLock lock;
+      try {
+        lock = lockChannel.tryLock();
+      }
+      catch (OverlappingFileLockException ex) {
+        return 0;
+      }
+
+      if (lock == null) {
+        return 0;
+      }
+
+      try {
+        return deliver(pending(), username, password);
+      }
+      finally {
+        lock.release();
+      }
+    }
+  }
+
+  private int deliver(final File[] files, final String username, final String password) throws Exception {
+    if (files.length == 0) {
+      return 0;
+    }
+
+    int delivered = 0;
+    int attempt = 0;
+
+    Transport transport = null;
+    try {
+      for (int idx = 0; idx < files.length;) {
+        boolean isConnected = false;
+
+        try {
+          if ((transport == null) || !transport.isConnected()) {
+            transport = session.getTransport("smtp");
+            transport.connect(username, password);
+          }
+          isConnected = true;
+
+          // a shared input stream lets the message body (and attachments) be streamed from disk
+          // while sending, instead of being buffered in memory by the parser
+          try (final SharedFileInputStream ins = new SharedFileInputStream(files[idx])) {
+            final MimeMessage message = new MimeMessage(session, ins);
+            transport.sendMessage(message, message.getAllRecipients());
+          }
+
+          Files.delete(files[idx].toPath());
+
+          ++delivered;
+          ++idx;
+          attempt = 0;
+        }
+        catch (Exception ex) {
+          lastError = ex;
+
+          if (attempt >= maxRetries) {
+            // the relay itself is unreachable, keep everything queued for the next run
+            if (!isConnected) {
+              throw ex;
+            }
+
+            // the relay keeps rejecting this message (bad recipient, too large, ...), set it aside
+            failed.add(moveToFailed(files[idx]));
+
+            ++idx;
+            attempt = 0;
+            continue;
+          }
+
+          close(transport);
+          transport = null;
+
+          Thread.sleep(backoffMs << Math.min(attempt, 16));
+          ++attempt;
+        }
+      }
+    }
+    finally {
+      close(transport);
+    }
+
+    return delivered;
+  }
+
+  private File moveToFailed(final File file) throws Exception {
+    final File failedFile = new File(FileUtils.mkdir(new File(dir, FAILED_DIR_NAME)), file.getName());
+    Files.move(file.toPath(), failedFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    return failedFile;
+  }
+
+  private static void close(final Transport transport) {
+    if (transport == null) {
+      return;
+    }
+
+    try {
+      transport.close();
+    }
+    catch (Exception ex) {
+      // ex.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,363 @@
+package io.hsiao.gitmerge.risk;
+
+import io.hsiao.gitmerge.jgit.JGit;
+import io.hsiao.gitmerge.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+// Conflict risk between pairs of branches
+//
+// For every pair, the paths each branch changed since their merge base are found
+// with tree diffs (nothing is merged) and intersected: the more paths both sides
+// touched, the more likely a merge between them conflicts. The changed paths of
+// each side are stored per (branch, merge base), so when a branch moves only the
+// paths changed between its old and new tip have to be compared again. The matrix
+// itself is one property file, rewritten atomically after every update.
+public final class RiskMatrix {
+  private static final String MATRIX_FILE_NAME = "matrix.properties";
+  private static final String SIDE_SUFFIX = ".side";
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  private static final String KEY_BRANCH = "branch";
+  private static final String KEY_BASE = "base";
+  private static final String KEY_TIP = "tip";
+  private static final String KEY_PATHS = "paths";
+  private static final String KEY_OVERLAP = "overlap";
+  private static final String KEY_CHANGED_FROM = "changedFrom";
+  private static final String KEY_CHANGED_TO = "changedTo";
+
+  private static final String KEY_PAIRS = "pairs";
+  private static final String KEY_COMPUTED = "computed";
+  private static final String PAIR_SEPARATOR = "..";
+
+  // overlapping paths kept per pair, enough to tell what the pair is fighting over
+  private static final int SAMPLE_PATHS = 5;
+
+  private final File dir;
+
+  private volatile boolean isCancelled;
+
+  public RiskMatrix(final File dir) throws Exception {
+    if (dir == null) {
+      throw new NullPointerException("argument 'dir' is null");
+    }
+
+    this.dir = FileUtils.mkdir(dir);
+  }
+
+  // asks a running update to stop before its next branch pair, the stored matrix is left as it was
+  public void cancel() {
+    isCancelled = true;
+  }
+
+  // recomputes the matrix for every pair of 'tips' (branch name to commit), highest risk first
+  public synchronized List<Entry> update(final JGit jgit, final Map<String, ObjectId> tips) throws Exception {
+    if (jgit == null) {
+      throw new NullPointerException("argument 'jgit' is null");
+    }
+
+    if (tips == null) {
+      throw new NullPointerException("argument 'tips' is null");
+    }
+
+    final long computed = System.currentTimeMillis();
+    final List<String> branches = new ArrayList<>(tips.keySet());
+    final List<Entry> entries = new ArrayList<>();
+    final Set<String> sides = new HashSet<>();
+
+    for (int lhs = 0; lhs < branches.size(); ++lhs) {
+      for (int rhs = lhs + 1; rhs < branches.size(); ++rhs) {
+        if (isCancelled) {
+          throw new RuntimeException("[ERROR] conflict risk update cancelled");
+        }
+
+        final String from = branches.get(lhs);
+        final String to = branches.get(rhs);
+
+        final ObjectId base = jgit.getMergeBase(tips.get(from), tips.get(to));
+        if (base == null) {
+          continue;
+        }
+
+        final Set<String> changedFrom = getChangedPaths(jgit, from, base, tips.get(from), sides);
+        final Set<String> changedTo = getChangedPaths(jgit, to, base, tips.get(to), sides);
+
+        final Set<String> overlap = new TreeSet<>(changedFrom);
+        overlap.retainAll(changedTo);
+
+        final List<String> samples = new ArrayList<>(overlap);
+        entries.add(new Entry(from, to, base.name(), overlap.size(), changedFrom.size(), changedTo.size(), computed,
+            samples.subList(0, Math.min(samples.size(), SAMPLE_PATHS))));
+      }
+    }
+
+    sort(entries);
+    store(entries, computed);
+
+    // change sets of merge bases no longer in use
+    final File[] files = dir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(final File parent, final String name) {
+        return name.endsWith(SIDE_SUFFIX) && !sides.contains(name);
+      }
+    });
+
+    if (files != null) {
+      for (final File file: files) {
+        Files.deleteIfExists(file.toPath());
+      }
+    }
+
+    return entries;
+  }
+
+  // the matrix as of the last update, highest risk first
+  public synchronized List<Entry> list() throws Exception {
+    final File file = new File(dir, MATRIX_FILE_NAME);
+    final List<Entry> entries = new ArrayList<>();
+
+    if (!file.isFile()) {
+      return entries;
+    }
+
+    final Properties props = new Properties();
+    try (final InputStream ins = new FileInputStream(file)) {
+      props.load(ins);
+    }
+
+    final long computed = Long.parseLong(props.getProperty(KEY_COMPUTED, "0"));
+
+    for (final String pair: props.getProperty(KEY_PAIRS, "").split(",")) {
+      final int idx = pair.indexOf(PAIR_SEPARATOR);
+      if (idx < 0) {
+        continue;
+      }
+
+      final String prefix = pair + ".";
+      final String paths = props.getProperty(prefix + KEY_PATHS, "");
+
+      entries.add(new Entry(pair.substring(0, idx), pair.substring(idx + PAIR_SEPARATOR.length()),
+          props.getProperty(prefix + KEY_BASE, ""),
+          Integer.parseInt(props.getProperty(prefix + KEY_OVERLAP, "0")),
+          Integer.parseInt(props.getProperty(prefix + KEY_CHANGED_FROM, "0")),
+          Integer.parseInt(props.getProperty(prefix + KEY_CHANGED_TO, "0")),
+          computed,
+          paths.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(paths.split("\n"))));
+    }
+
+    sort(entries);
+    return entries;
+  }
+
+  // the entry for 'lhs' and 'rhs' (in either order) as of the last update, or null
+  public Entry query(final String lhs, final String rhs) throws Exception {
+    if (lhs == null) {
+      throw new NullPointerException("argument 'lhs' is null");
+    }
+
+    if (rhs == null) {
+      throw new NullPointerException("argument 'rhs' is null");
+    }
+
+    for (final Entry entry: list()) {
+      if ((entry.getFrom().equals(lhs) && entry.getTo().equals(rhs)) || (entry.getFrom().equals(rhs) && entry.getTo().equals(lhs))) {
+        return entry;
+      }
+    }
+
+    return null;
+  }
+
+  // paths 'branch' changed between 'base' and 'tip'; with a stored change set for an older tip on the same
+  // base, only the paths that set names plus the paths changed between the two tips need comparing
+  private Set<String> getChangedPaths(final JGit jgit, final String branch, final ObjectId base, final ObjectId tip,
+      final Set<String> sides) throws Exception {
+    final File file = getFile(branch, base);
+    sides.add(file.getName());
+
+    final Properties props = new Properties();
+    if (file.isFile()) {
+      try (final InputStream ins = new FileInputStream(file)) {
+        props.load(ins);
+      }
+    }
+
+    final String paths = props.getProperty(KEY_PATHS, "");
+    final Set<String> stored = new HashSet<>();
+    if (!paths.isEmpty()) {
+      stored.addAll(Arrays.asList(paths.split("\n")));
+    }
+
+    final String storedTip = props.getProperty(KEY_TIP, "");
+    if (storedTip.equals(tip.name())) {
+      return stored;
+    }
+
+    final Set<String> changed;
+    if (!storedTip.isEmpty() && jgit.hasObject(ObjectId.fromString(storedTip))) {
+      final Set<String> candidates = new HashSet<>(stored);
+      candidates.addAll(jgit.getChangedPaths(ObjectId.fromString(storedTip), tip, null));
+      changed = jgit.getChangedPaths(base, tip, candidates);
+    }
+    else {
+      changed = jgit.getChangedPaths(base, tip, null);
+    }
+
+    final StringBuilder sb = new StringBuilder();
+    for (final String path: new TreeSet<>(changed)) {
+      sb.append((sb.length() == 0) ? "" : "\n").append(path);
+    }
+
+    final Properties side = new Properties();
+    side.setProperty(KEY_BRANCH, branch);
+    side.setProperty(KEY_BASE, base.name());
+    side.setProperty(KEY_TIP, tip.name());
+    side.setProperty(KEY_PATHS, sb.toString());
+    write(side, file);
+
+    return changed;
+  }
+
+  private void store(final List<Entry> entries, final long computed) throws Exception {
+    final Properties props = new Properties();
+    final StringBuilder pairs = new StringBuilder();
+
+    for (final Entry entry: entries) {
+      final String pair = entry.getFrom() + PAIR_SEPARATOR + entry.getTo();
+      pairs.append((pairs.length() == 0) ? "" : ",").append(pair);
+
+      final StringBuilder paths = new StringBuilder();
+      for (final String path: entry.getPaths()) {
+        paths.append((paths.length() == 0) ? "" : "\n").append(path);
+      }
+
+      props.setProperty(pair + "." + KEY_BASE, entry.getBase());
+      props.setProperty(pair + "." + KEY_OVERLAP, Integer.toString(entry.getOverlap()));
+      props.setProperty(pair + "." + KEY_CHANGED_FROM, Integer.toString(entry.getChangedFrom()));
+      props.setProperty(pair + "." + KEY_CHANGED_TO, Integer.toString(entry.getChangedTo()));
+      props.setProperty(pair + "." + KEY_PATHS, paths.toString());
+    }
+
+    props.setProperty(KEY_PAIRS, pairs.toString());
+    props.setProperty(KEY_COMPUTED, Long.toString(computed));
+
+    write(props, new File(dir, MATRIX_FILE_NAME));
+  }
+
+  private void write(final Properties props, final File file) throws Exception {
+    final File partial = new File(dir, file.getName() + PARTIAL_SUFFIX);
+
+    try (final OutputStream os = new FileOutputStream(partial)) {
+      props.store(os, null);
+    }
+
+    Files.move(partial.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private File getFile(final String branch, final ObjectId base) throws Exception {
+    final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    digest.update((branch + " " + base.name()).getBytes("UTF-8"));
+
+    final StringBuilder sb = new StringBuilder();
+    for (final byte b: digest.digest()) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+
+    return new File(dir, sb.append(SIDE_SUFFIX).toString());
+  }
+
+  private static void sort(final List<Entry> entries) {
+    Collections.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(final Entry lhs, final Entry rhs) {
+        if (lhs.getOverlap() != rhs.getOverlap()) {
+          return Integer.compare(rhs.getOverlap(), lhs.getOverlap());
+        }
+        return Double.compare(rhs.getRatio(), lhs.getRatio());
+      }
+    });
+  }
+
+  public static final class Entry {
+    private final String from;
+    private final String to;
+    private final String base;
+    private final int overlap;
+    private final int changedFrom;
+    private final int changedTo;
+    private final long computed;
+    private final List<String> paths;
+
+    private Entry(final String from, final String to, final String base, final int overlap, final int changedFrom,
+        final int changedTo, final long computed, final List<String> paths) {
+      this.from = from;
+      this.to = to;
+      this.base = base;
+      this.overlap = overlap;
+      this.changedFrom = changedFrom;
+      this.changedTo = changedTo;
+      this.computed = computed;
+      this.paths = Collections.unmodifiableList(new ArrayList<>(paths));
+    }
+
+    public String getFrom() {
+      return from;
+    }
+
+    public String getTo() {
+      return to;
+    }
+
+    public String getBase() {
+      return base;
+    }
+
+    // paths changed on both sides since the merge base
+    public int getOverlap() {
+      return overlap;
+    }
+
+    public int getChangedFrom() {
+      return changedFrom;
+    }
+
+    public int getChangedTo() {
+      return changedTo;
+    }
+
+    // share of the smaller side's changes that the other side touched too
+    public double getRatio() {
+      final int smaller = Math.min(changedFrom, changedTo);
+      return (smaller == 0) ? 0 : (double) overlap / smaller;
+    }
+
+    public long getComputed() {
+      return computed;
+    }
+
+    // a few of the overlapping paths
+    public List<String> getPaths() {
+      return paths;
+    }
+  }
+}
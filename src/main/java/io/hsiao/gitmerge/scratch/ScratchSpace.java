@@ -0,0 +1,247 @@
+package io.hsiao.gitmerge.scratch;
+
+import io.hsiao.gitmerge.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Managed scratch area
+//
+// Every run works in its own 'run-<id>' directory under a shared root and holds a
+// lock on it while it is alive. Directories left behind by earlier runs are removed
+// by a background cleaner once they are older than the age budget, or, oldest first,
+// while all of them together exceed the size budget; locked ones are never touched.
+public final class ScratchSpace {
+  private static final String RUN_PREFIX = "run-";
+  private static final String LOCK_FILE_NAME = ".lock";
+
+  // a directory without a lock file this young may still be being set up by its run
+  private static final long GRACE_MS = 60 * 1000;
+
+  private final File root;
+  private final File dir;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+
+  private Thread cleaner;
+  private volatile int removedDirs;
+  private volatile long removedBytes;
+
+  private ScratchSpace(final File root, final File dir, final FileChannel lockChannel, final FileLock lock) {
+    this.root = root;
+    this.dir = dir;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+  }
+
+  public static ScratchSpace open(final File root, final String runId) throws Exception {
+    if (root == null) {
+      throw new NullPointerException("argument 'root' is null");
+    }
+
+    if (runId == null) {
+      throw new NullPointerException("argument 'runId' is null");
+    }
+
+    final File dir = Files.createDirectory(new File(FileUtils.mkdir(root), RUN_PREFIX + runId).toPath()).toFile();
+
+    final FileChannel lockChannel = FileChannel.open(new File(dir, LOCK_FILE_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    final FileLock lock = lockChannel.tryLock();
+    if (lock == null) {
+      lockChannel.close();
+      throw new RuntimeException("[ERROR] failed to lock scratch directory [" + dir + "]");
+    }
+
+    return new ScratchSpace(root, dir, lockChannel, lock);
+  }
+
+  public File getRoot() {
+    return root;
+  }
+
+  public File getDir() {
+    return dir;
+  }
+
+  public int getRemovedDirs() {
+    return removedDirs;
+  }
+
+  public long getRemovedBytes() {
+    return removedBytes;
+  }
+
+  // removes directories of finished runs in the background ('maxAgeMs' and 'maxBytes', 0 means unlimited)
+  public synchronized void cleanAsync(final long maxAgeMs, final long maxBytes) {
+    if (cleaner != null) {
+      return;
+    }
+
+    cleaner = new Thread("scratch-cleaner") {
+      @Override
+      public void run() {
+        clean(maxAgeMs, maxBytes);
+      }
+    };
+
+    cleaner.setDaemon(true);
+    cleaner.start();
+  }
+
+  // waits for the cleaner, then releases this run's directory (and deletes it when 'isDelete' is true)
+  public void close(final boolean isDelete) throws Exception {
+    final Thread thread;
+    synchronized (this) {
+      thread = cleaner;
+    }
+
+    if (thread != null) {
+      thread.join();
+    }
+
+    if (lock.isValid()) {
+      lock.release();
+    }
+    lockChannel.close();
+
+    if (isDelete) {
+      FileUtils.rmdir(dir, false);
+    }
+  }
+
+  private void clean(final long maxAgeMs, final long maxBytes) {
+    final File[] dirs = root.listFiles();
+    if (dirs == null) {
+      return;
+    }
+
+    final List<Candidate> candidates = new ArrayList<>();
+    for (final File runDir: dirs) {
+      if (runDir.getName().startsWith(RUN_PREFIX) && runDir.isDirectory() && !runDir.equals(dir)) {
+        candidates.add(new Candidate(runDir, runDir.lastModified()));
+      }
+    }
+
+    // newest first, so the size budget is spent on the most recent runs
+    Collections.sort(candidates, new Comparator<Candidate>() {
+      @Override
+      public int compare(final Candidate lhs, final Candidate rhs) {
+        return Long.compare(rhs.modified, lhs.modified);
+      }
+    });
+
+    final long now = System.currentTimeMillis();
+    long keptBytes = 0;
+
+    for (final Candidate candidate: candidates) {
+      try {
+        final long size = size(candidate.dir);
+        final boolean isExpired = (maxAgeMs > 0) && (now - candidate.modified > maxAgeMs);
+        final boolean isOverBudget = (maxBytes > 0) && (keptBytes + size > maxBytes);
+
+        if ((isExpired || isOverBudget) && remove(candidate, now)) {
+          ++removedDirs;
+          removedBytes += size;
+        }
+        else {
+          keptBytes += size;
+        }
+      }
+      catch (Exception ex) {
+        // ex.printStackTrace();
+      }
+    }
+  }
+
+  // deletes 'candidate' unless its run still holds the lock
+  private static boolean remove(final Candidate candidate, final long now) throws IOException {
+    final File lockFile = new File(candidate.dir, LOCK_FILE_NAME);
+
+    if (!lockFile.isFile()) {
+      if (now - candidate.modified < GRACE_MS) {
+        return false;
+      }
+
+      FileUtils.rmdir(candidate.dir, false);
+      return true;
+    }
+
+    try (final FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+      final FileLock candidateLock;
+      try {
+        candidateLock = channel.tryLock();
+      }
+      catch (OverlappingFileLockException ex) {
+        return false;
+      }
+
+      if (candidateLock == null) {
+        return false;
+      }
+
+      try {
+        final File[] entries = candidate.dir.listFiles();
+        if (entries != null) {
+          for (final File entry: entries) {
+            if (!entry.getName().equals(LOCK_FILE_NAME)) {
+              if (entry.isDirectory()) {
+                FileUtils.rmdir(entry, false);
+              }
+              else {
+                Files.delete(entry.toPath());
+              }
+            }
+          }
+        }
+      }
+      finally {
+        candidateLock.release();
+      }
+    }
+
+    FileUtils.rmdir(candidate.dir, false);
+    return true;
+  }
+
+  private static long size(final File dir) throws IOException {
+    final long[] size = new long[1];
+
+    Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        size[0] += attrs.size();
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    return size[0];
+  }
+
+  private static final class Candidate {
+    private final File dir;
+    private final long modified;
+
+    private Candidate(final File dir, final long modified) {
+      this.dir = dir;
+      this.modified = modified;
+    }
+  }
+}
@@ -1,8 +1,6 @@
 package io.hsiao.gitmerge.teamforge;
 
 import java.rmi.RemoteException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.collabnet.ce.soap60.webservices.ClientSoapStubFactory;
 import com.collabnet.ce.soap60.webservices.cemain.ICollabNetSoap;
@@ -54,24 +52,20 @@ public final class Teamforge {
     final PackageSoapDO packageSoapDO = frsAppSoap.getPackageData(sessionKey, packageId);
     String description = packageSoapDO.getDescription();
 
-    final Pattern pattern;
+    final VersionDescriptor descriptor;
     if (!isCommitAllowed) {
-      pattern = Pattern.compile("\\[\\s*version\\s*\\:\\s*(.+?)\\s*\\]", Pattern.CASE_INSENSITIVE);
+      descriptor = VersionDescriptor.find(description);
     }
     else {
-      pattern = Pattern.compile("\\[\\s*version\\s*\\:\\s*(.+?)_locked\\s*\\]", Pattern.CASE_INSENSITIVE);
+      descriptor = VersionDescriptor.findLocked(description);
     }
 
-    final Matcher matcher = pattern.matcher(description);
-    if (matcher.find()) {
-      final String version = matcher.group(1);
+    if (descriptor != null) {
       if (!isCommitAllowed) {
-        if (!version.endsWith("_locked")) {
-          description = matcher.replaceFirst("\\[version\\:" + version + "_locked\\]");
-        }
+        description = descriptor.lock();
       }
       else {
-        description = matcher.replaceFirst("\\[version\\:" + version + "\\]");
+        description = descriptor.unlock();
       }
     }
     else {
@@ -0,0 +1,134 @@
+package io.hsiao.gitmerge.teamforge;
+
+// '[version:...]' descriptor embedded in a package description
+//
+// Hand written scanner replacing the \[\s*version\s*:\s*(.+?)\s*\] and
+// \[\s*version\s*:\s*(.+?)_locked\s*\] patterns formerly compiled on every update
+public final class VersionDescriptor {
+  private static final String KEYWORD = "version";
+  private static final String LOCKED_SUFFIX = "_locked";
+
+  private final String description;
+  private final int start;
+  private final int end;
+  private final String version;
+
+  private VersionDescriptor(final String description, final int start, final int end, final String version) {
+    this.description = description;
+    this.start = start;
+    this.end = end;
+    this.version = version;
+  }
+
+  // first descriptor in 'description', or null
+  public static VersionDescriptor find(final String description) {
+    return find(description, false);
+  }
+
+  // first descriptor in 'description' whose version carries the '_locked' suffix, or null
+  public static VersionDescriptor findLocked(final String description) {
+    return find(description, true);
+  }
+
+  private static VersionDescriptor find(final String description, final boolean isLockedOnly) {
+    if (description == null) {
+      throw new NullPointerException("argument 'description' is null");
+    }
+
+    final int length = description.length();
+
+    for (int start = description.indexOf('['); start >= 0; start = description.indexOf('[', start + 1)) {
+      int pos = skipWhitespace(description, start + 1);
+
+      if (!description.regionMatches(true, pos, KEYWORD, 0, KEYWORD.length())) {
+        continue;
+      }
+      pos = skipWhitespace(description, pos + KEYWORD.length());
+
+      if ((pos >= length) || (description.charAt(pos) != ':')) {
+        continue;
+      }
+      pos = skipWhitespace(description, pos + 1);
+
+      // the version never spans lines and ends at the first closing bracket, which may follow on a later line
+      int close = pos;
+      while ((close < length) && (description.charAt(close) != ']') && !isLineTerminator(description.charAt(close))) {
+        ++close;
+      }
+      close = skipWhitespace(description, close);
+
+      if ((close >= length) || (description.charAt(close) != ']')) {
+        continue;
+      }
+
+      int versionEnd = close;
+      while ((versionEnd > pos) && isSpace(description.charAt(versionEnd - 1))) {
+        --versionEnd;
+      }
+
+      final String version = description.substring(pos, versionEnd);
+      if (version.isEmpty()) {
+        continue;
+      }
+
+      if (isLockedOnly && ((version.length() <= LOCKED_SUFFIX.length()) || !version.regionMatches(true,
+          version.length() - LOCKED_SUFFIX.length(), LOCKED_SUFFIX, 0, LOCKED_SUFFIX.length()))) {
+        continue;
+      }
+
+      return new VersionDescriptor(description, start, close + 1, version);
+    }
+
+    return null;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public boolean isLocked() {
+    return version.endsWith(LOCKED_SUFFIX);
+  }
+
+  // description with this descriptor switched to the locked version
+  public String lock() {
+    if (isLocked()) {
+      return description;
+    }
+
+    return replace(version + LOCKED_SUFFIX);
+  }
+
+  // description with this descriptor switched back to the unlocked version
+  public String unlock() {
+    if (version.length() <= LOCKED_SUFFIX.length() || !version.regionMatches(true,
+        version.length() - LOCKED_SUFFIX.length(), LOCKED_SUFFIX, 0, LOCKED_SUFFIX.length())) {
+      return description;
+    }
+
+    return replace(version.substring(0, version.length() - LOCKED_SUFFIX.length()));
+  }
+
+  private String replace(final String newVersion) {
+    return new StringBuilder(description.length() + LOCKED_SUFFIX.length())
+        .append(description, 0, start)
+        .append("[version:").append(newVersion).append("]")
+        .append(description, end, description.length())
+        .toString();
+  }
+
+  private static int skipWhitespace(final String str, int pos) {
+    while ((pos < str.length()) && isSpace(str.charAt(pos))) {
+      ++pos;
+    }
+    return pos;
+  }
+
+  private static boolean isLineTerminator(final char ch) {
+    return (ch == '\n') || (ch == '\r') || (ch == 0x0085) || (ch == 0x2028) || (ch == 0x2029);
+  }
+
+  private static boolean isSpace(final char ch) {
+    return (ch == ' ') || (ch == '\t') || (ch == '\n') || (ch == 0x000B) || (ch == '\f') || (ch == '\r');
+  }
+}
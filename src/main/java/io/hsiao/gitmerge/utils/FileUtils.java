@@ -2,8 +2,10 @@ package io.hsiao.gitmerge.utils;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
@@ -12,7 +14,9 @@ import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
 
 public final class FileUtils {
@@ -72,6 +76,49 @@ public final class FileUtils {
     });
   }
 
+  public static List<File> split(final File file, final long chunkSize) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' is null");
+    }
+
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("argument 'chunkSize' must be positive");
+    }
+
+    final List<File> chunks = new ArrayList<>();
+    final byte[] buffer = new byte[64 * 1024];
+
+    try (final InputStream ins = new FileInputStream(file)) {
+      int len = 0;
+
+      while (len >= 0) {
+        final File chunk = new File(file.getPath() + String.format(".%03d", chunks.size() + 1));
+
+        long written = 0;
+        try (final OutputStream os = new FileOutputStream(chunk)) {
+          while (written < chunkSize) {
+            len = ins.read(buffer, 0, (int) Math.min(buffer.length, chunkSize - written));
+            if (len < 0) {
+              break;
+            }
+
+            os.write(buffer, 0, len);
+            written += len;
+          }
+        }
+
+        if (written == 0) {
+          Files.delete(chunk.toPath());
+          break;
+        }
+
+        chunks.add(chunk);
+      }
+    }
+
+    return chunks;
+  }
+
   public static InputStream loadFileAsStream(final String name) throws IOException {
     if (name == null) {
       throw new NullPointerException("argument 'name' is null");
@@ -0,0 +1,174 @@
+package io.hsiao.gitmerge.utils;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Minimal streaming JSON writer, values are written straight through to the
+// underlying writer so documents of any size can be produced in constant memory
+public final class JsonWriter implements Closeable, Flushable {
+  private final Writer writer;
+  private final Deque<Boolean> scopes;
+
+  private boolean isNameWritten;
+
+  public JsonWriter(final Writer writer) {
+    if (writer == null) {
+      throw new NullPointerException("argument 'writer' is null");
+    }
+
+    this.writer = writer;
+    this.scopes = new ArrayDeque<>();
+  }
+
+  public JsonWriter beginObject() throws IOException {
+    beforeValue();
+    writer.write('{');
+    scopes.push(Boolean.TRUE);
+    return this;
+  }
+
+  public JsonWriter endObject() throws IOException {
+    scopes.pop();
+    writer.write('}');
+    return this;
+  }
+
+  public JsonWriter beginArray() throws IOException {
+    beforeValue();
+    writer.write('[');
+    scopes.push(Boolean.TRUE);
+    return this;
+  }
+
+  public JsonWriter endArray() throws IOException {
+    scopes.pop();
+    writer.write(']');
+    return this;
+  }
+
+  public JsonWriter name(final String name) throws IOException {
+    if (name == null) {
+      throw new NullPointerException("argument 'name' is null");
+    }
+
+    beforeValue();
+    writeString(name);
+    writer.write(':');
+    isNameWritten = true;
+    return this;
+  }
+
+  public JsonWriter value(final String value) throws IOException {
+    beforeValue();
+    if (value == null) {
+      writer.write("null");
+    }
+    else {
+      writeString(value);
+    }
+    return this;
+  }
+
+  public JsonWriter value(final long value) throws IOException {
+    beforeValue();
+    writer.write(Long.toString(value));
+    return this;
+  }
+
+  public JsonWriter value(final boolean value) throws IOException {
+    beforeValue();
+    writer.write(value ? "true" : "false");
+    return this;
+  }
+
+  public JsonWriter value(final double value) throws IOException {
+    beforeValue();
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      writer.write("null");
+    }
+    else {
+      writer.write(Double.toString(value));
+    }
+    return this;
+  }
+
+  public JsonWriter field(final String name, final String value) throws IOException {
+    return name(name).value(value);
+  }
+
+  public JsonWriter field(final String name, final long value) throws IOException {
+    return name(name).value(value);
+  }
+
+  public JsonWriter field(final String name, final boolean value) throws IOException {
+    return name(name).value(value);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+  private void beforeValue() throws IOException {
+    if (isNameWritten) {
+      isNameWritten = false;
+      return;
+    }
+
+    if (scopes.isEmpty()) {
+      return;
+    }
+
+    if (scopes.peek()) {
+      scopes.pop();
+      scopes.push(Boolean.FALSE);
+    }
+    else {
+      writer.write(',');
+    }
+  }
+
+  private void writeString(final String str) throws IOException {
+    writer.write('"');
+
+    for (int idx = 0; idx < str.length(); ++idx) {
+      final char ch = str.charAt(idx);
+
+      switch (ch) {
+        case '"':
+          writer.write("\\\"");
+          break;
+        case '\\':
+          writer.write("\\\\");
+          break;
+        case '\n':
+          writer.write("\\n");
+          break;
+        case '\r':
+          writer.write("\\r");
+          break;
+        case '\t':
+          writer.write("\\t");
+          break;
+        default:
+          if (ch < 0x20) {
+            writer.write(String.format("\\u%04x", (int) ch));
+          }
+          else {
+            writer.write(ch);
+          }
+      }
+    }
+
+    writer.write('"');
+  }
+}
@@ -0,0 +1,135 @@
+package io.hsiao.gitmerge.utils;
+
+import io.hsiao.gitmerge.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs external commands in a fixed working directory
+//
+// Every command is still its own process: git has no long-lived server for merge,
+// add, push or gc, so there is nothing to keep running between commands. They are
+// all started from one launcher set up once (working directory, inherited stdin).
+// Starting a process costs about 2 ms, small next to the git work itself, so the
+// per-command cost that matters is the output handling: it is drained by a shared
+// pool of daemon threads instead of two new threads per command, and streams that
+// should be shown are logged line by line, so child output goes through the same
+// log as everything else.
+public final class ProcessRunner {
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final ExecutorService DRAINERS = Executors.newCachedThreadPool(new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      final Thread thread = new Thread(runnable, "process-drainer-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final ProcessBuilder launcher;
+
+  private int commands;
+  private long millis;
+
+  public ProcessRunner(final File dir) {
+    if (dir == null) {
+      throw new NullPointerException("argument 'dir' is null");
+    }
+
+    launcher = new ProcessBuilder().directory(dir).redirectInput(Redirect.INHERIT);
+  }
+
+  public int run(final boolean isShowOutput, final boolean isShowErrors, final String... command) throws Exception {
+    if (command == null) {
+      throw new NullPointerException("argument 'command' is null");
+    }
+
+    final long startedMs = System.currentTimeMillis();
+
+    final Process process;
+    synchronized (launcher) {
+      process = launcher.command(command).start();
+    }
+
+    final Future<?> stdoutDrainer = drain(process.getInputStream(), isShowOutput ? Log.newOutputStream(command[0]) : null);
+    final Future<?> stderrDrainer = drain(process.getErrorStream(), isShowErrors ? Log.newOutputStream(command[0]) : null);
+
+    try {
+      final int retValue = process.waitFor();
+
+      stdoutDrainer.get();
+      stderrDrainer.get();
+
+      return retValue;
+    }
+    finally {
+      process.getInputStream().close();
+      process.getErrorStream().close();
+
+      synchronized (this) {
+        ++commands;
+        millis += System.currentTimeMillis() - startedMs;
+      }
+    }
+  }
+
+  public void runChecked(final boolean isShowOutput, final boolean isShowErrors, final String... command) throws Exception {
+    final int retValue = run(isShowOutput, isShowErrors, command);
+
+    if (retValue != 0) {
+      throw new RuntimeException("[ERROR] failed to run " + Arrays.toString(command) + " [Unexpected errors occurred (" + retValue + ")]");
+    }
+  }
+
+  public synchronized int getCommands() {
+    return commands;
+  }
+
+  public synchronized long getMillis() {
+    return millis;
+  }
+
+  // copies 'ins' to 'os', or discards it when 'os' is null
+  private static Future<?> drain(final InputStream ins, final OutputStream os) {
+    return DRAINERS.submit(new Runnable() {
+      @Override
+      public void run() {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        try {
+          int length;
+          while ((length = ins.read(buffer)) >= 0) {
+            if (os != null) {
+              os.write(buffer, 0, length);
+            }
+          }
+        }
+        catch (IOException ex) {
+          // ex.printStackTrace();
+        }
+        finally {
+          if (os != null) {
+            try {
+              os.close();
+            }
+            catch (IOException ex) {
+              // ex.printStackTrace();
+            }
+          }
+        }
+      }
+    });
+  }
+}
@@ -21,6 +21,37 @@ public final class StringUtils {
     return sb.toString();
   }
 
+  public static String escapeHtml(final String str) {
+    if (str == null) {
+      return null;
+    }
+
+    final StringBuilder sb = new StringBuilder(str.length());
+
+    for (int idx = 0; idx < str.length(); ++idx) {
+      final char ch = str.charAt(idx);
+
+      switch (ch) {
+        case '<':
+          sb.append("&lt;");
+          break;
+        case '>':
+          sb.append("&gt;");
+          break;
+        case '&':
+          sb.append("&amp;");
+          break;
+        case '"':
+          sb.append("&quot;");
+          break;
+        default:
+          sb.append(ch);
+      }
+    }
+
+    return sb.toString();
+  }
+
   public static String prettyFormat(final String symbol, final int repeat, final String... messages) {
     if (symbol == null) {
       throw new NullPointerException("argument 'symbol' is null");
@@ -1,23 +1,58 @@
 package io.hsiao.gitmerge.utils;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 public final class ZipUtils {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // beyond these the classic zip format needs zip64 records, which the parallel writer does not produce
+  private static final long MAX_SIZE = 0xFFFFFFFFL;
+  private static final int MAX_ENTRIES = 0xFFFF;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int VERSION = 20;
+  private static final int FLAG_UTF8 = 0x0800;
+  private static final int ATTRIBUTE_DIRECTORY = 0x10;
+
   private ZipUtils() {};
 
   public static void pack(final File source, final File dest, final boolean zipEmpty) throws IOException {
+    pack(source, dest, zipEmpty, 1);
+  }
+
+  // same archive layout as the sequential writer, but file entries are deflated on
+  // 'threads' workers and written in walk order as they complete
+  public static void pack(final File source, final File dest, final boolean zipEmpty, final int threads) throws IOException {
     if (source == null) {
       throw new NullPointerException("argument 'source' is null");
     }
@@ -30,44 +65,293 @@ public final class ZipUtils {
       return;
     }
 
+    final List<PackEntry> entries = list(source);
+
+    long totalSize = 0;
+    for (final PackEntry entry: entries) {
+      totalSize += entry.file.isDirectory() ? 0 : entry.file.length();
+    }
+
+    if ((threads <= 1) || (entries.size() > MAX_ENTRIES) || (totalSize > MAX_SIZE)) {
+      packSequential(entries, dest);
+    }
+    else {
+      packParallel(entries, dest, threads);
+    }
+  }
+
+  private static List<PackEntry> list(final File source) throws IOException {
+    final List<PackEntry> entries = new ArrayList<>();
+
+    Files.walkFileTree(source.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+      new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          final Path relative = source.toPath().toAbsolutePath().relativize(file.toAbsolutePath());
+          entries.add(new PackEntry(relative.toString(), file.toFile()));
+
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+          if (exc != null) {
+            throw exc;
+          }
+
+          final Path relative = source.toPath().toAbsolutePath().relativize(dir.toAbsolutePath());
+          if (!relative.toString().isEmpty()) {
+            entries.add(new PackEntry(relative.toString() + "/", dir.toFile()));
+          }
+
+          return FileVisitResult.CONTINUE;
+        }
+    });
+
+    return entries;
+  }
+
+  private static void packSequential(final List<PackEntry> entries, final File dest) throws IOException {
     try (final FileOutputStream fos = new FileOutputStream(dest);
-      final ZipOutputStream zos = new ZipOutputStream(fos)) {
+      final ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE))) {
 
-      Files.walkFileTree(source.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
-        new SimpleFileVisitor<Path>() {
-          @Override
-          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-            final Path relative = source.toPath().toAbsolutePath().relativize(file.toAbsolutePath());
-            zos.putNextEntry(new ZipEntry(relative.toString()));
-
-            final byte[] buffer = new byte[1024];
-            int len;
-            try (final FileInputStream fis = new FileInputStream(file.toFile())) {
-              while ((len = fis.read(buffer)) > 0) {
-                zos.write(buffer, 0, len);
-              }
-            }
+      final byte[] buffer = new byte[BUFFER_SIZE];
 
-            zos.closeEntry();
+      for (final PackEntry entry: entries) {
+        zos.putNextEntry(new ZipEntry(entry.name));
 
-            return FileVisitResult.CONTINUE;
+        if (!entry.file.isDirectory()) {
+          int len;
+          try (final FileInputStream fis = new FileInputStream(entry.file)) {
+            while ((len = fis.read(buffer)) > 0) {
+              zos.write(buffer, 0, len);
+            }
           }
+        }
 
+        zos.closeEntry();
+      }
+    }
+  }
+
+  private static void packParallel(final List<PackEntry> entries, final File dest, final int threads) throws IOException {
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    // at most a few entries per worker are held in memory, compressed, waiting for their turn
+    final int window = threads * 4;
+    final Deque<Future<PackEntry>> pending = new ArrayDeque<>();
+    final List<PackEntry> written = new ArrayList<>(entries.size());
+
+    try (final CountingOutputStream os = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(dest), BUFFER_SIZE))) {
+      for (final PackEntry entry: entries) {
+        pending.addLast(executor.submit(new Callable<PackEntry>() {
           @Override
-          public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-            if (exc != null) {
-              throw exc;
-            }
+          public PackEntry call() throws Exception {
+            return entry.file.isDirectory() ? entry : entry.deflate();
+          }
+        }));
 
-            final Path relative = source.toPath().toAbsolutePath().relativize(dir.toAbsolutePath());
-            if (!relative.toString().isEmpty()) {
-              zos.putNextEntry(new ZipEntry(relative.toString() + "/"));
-              zos.closeEntry();
-            }
+        if (pending.size() >= window) {
+          written.add(writeLocal(os, take(pending.removeFirst())));
+        }
+      }
+
+      while (!pending.isEmpty()) {
+        written.add(writeLocal(os, take(pending.removeFirst())));
+      }
+
+      final long centralOffset = os.getCount();
+      for (final PackEntry entry: written) {
+        writeCentral(os, entry);
+      }
+      final long centralSize = os.getCount() - centralOffset;
+
+      writeInt(os, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+      writeShort(os, 0);
+      writeShort(os, 0);
+      writeShort(os, written.size());
+      writeShort(os, written.size());
+      writeInt(os, centralSize);
+      writeInt(os, centralOffset);
+      writeShort(os, 0);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static PackEntry take(final Future<PackEntry> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while compressing", ex);
+    }
+    catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException(ex.getCause());
+    }
+  }
+
+  private static PackEntry writeLocal(final CountingOutputStream os, final PackEntry entry) throws IOException {
+    entry.offset = os.getCount();
+
+    writeInt(os, LOCAL_HEADER_SIGNATURE);
+    writeShort(os, VERSION);
+    writeShort(os, FLAG_UTF8);
+    writeShort(os, entry.method);
+    writeInt(os, entry.dosTime);
+    writeInt(os, entry.crc);
+    writeInt(os, entry.compressedSize);
+    writeInt(os, entry.size);
+    writeShort(os, entry.encodedName.length);
+    writeShort(os, 0);
+    os.write(entry.encodedName);
+
+    if (entry.data != null) {
+      os.write(entry.data, 0, entry.data.length);
+      entry.data = null;
+    }
+
+    return entry;
+  }
+
+  private static void writeCentral(final OutputStream os, final PackEntry entry) throws IOException {
+    writeInt(os, CENTRAL_HEADER_SIGNATURE);
+    writeShort(os, VERSION);
+    writeShort(os, VERSION);
+    writeShort(os, FLAG_UTF8);
+    writeShort(os, entry.method);
+    writeInt(os, entry.dosTime);
+    writeInt(os, entry.crc);
+    writeInt(os, entry.compressedSize);
+    writeInt(os, entry.size);
+    writeShort(os, entry.encodedName.length);
+    writeShort(os, 0);
+    writeShort(os, 0);
+    writeShort(os, 0);
+    writeShort(os, 0);
+    writeInt(os, entry.method == ZipEntry.STORED ? ATTRIBUTE_DIRECTORY : 0);
+    writeInt(os, entry.offset);
+    os.write(entry.encodedName);
+  }
+
+  private static void writeShort(final OutputStream os, final int value) throws IOException {
+    os.write(value & 0xff);
+    os.write((value >>> 8) & 0xff);
+  }
+
+  private static void writeInt(final OutputStream os, final long value) throws IOException {
+    writeShort(os, (int) (value & 0xffff));
+    writeShort(os, (int) ((value >>> 16) & 0xffff));
+  }
+
+  private static final class PackEntry {
+    private final String name;
+    private final File file;
+    private final byte[] encodedName;
+    private final long dosTime;
+
+    private int method = ZipEntry.STORED;
+    private long crc;
+    private long size;
+    private long compressedSize;
+    private long offset;
+    private byte[] data;
+
+    private PackEntry(final String name, final File file) {
+      this.name = name;
+      this.file = file;
+      this.encodedName = name.getBytes(StandardCharsets.UTF_8);
+      this.dosTime = toDosTime(System.currentTimeMillis());
+    }
+
+    private PackEntry deflate() throws IOException {
+      final CRC32 checksum = new CRC32();
+      final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+      final byte[] input = new byte[BUFFER_SIZE];
+      final byte[] output = new byte[BUFFER_SIZE];
+
+      try (final FileInputStream fis = new FileInputStream(file)) {
+        int len;
+        while ((len = fis.read(input)) > 0) {
+          checksum.update(input, 0, len);
+          size += len;
 
-            return FileVisitResult.CONTINUE;
+          deflater.setInput(input, 0, len);
+          while (!deflater.needsInput()) {
+            bos.write(output, 0, deflater.deflate(output));
           }
-      });
+        }
+
+        deflater.finish();
+        while (!deflater.finished()) {
+          bos.write(output, 0, deflater.deflate(output));
+        }
+      }
+      finally {
+        deflater.end();
+      }
+
+      method = ZipEntry.DEFLATED;
+      crc = checksum.getValue();
+      data = bos.toByteArray();
+      compressedSize = data.length;
+
+      return this;
+    }
+
+    private static long toDosTime(final long time) {
+      final Calendar calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(time);
+
+      final int year = calendar.get(Calendar.YEAR);
+      if (year < 1980) {
+        return (1 << 21) | (1 << 16);
+      }
+
+      return ((long) (year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21) | (calendar.get(Calendar.DAY_OF_MONTH) << 16) |
+          (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+  }
+
+  private static final class CountingOutputStream extends OutputStream {
+    private final OutputStream os;
+    private long count;
+
+    private CountingOutputStream(final OutputStream os) {
+      this.os = os;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      os.write(b);
+      ++count;
+    }
+
+    @Override
+    public void write(final byte[] buffer, final int offset, final int length) throws IOException {
+      os.write(buffer, offset, length);
+      count += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      os.close();
+    }
+
+    private long getCount() {
+      return count;
     }
   }
 }
@@ -0,0 +1,112 @@
+package io.hsiao.gitmerge;
+
+import io.hsiao.gitmerge.jgit.Expression;
+import io.hsiao.gitmerge.teamforge.VersionDescriptor;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Hand written Expression and VersionDescriptor scanners against the regular expressions they replaced
+public final class ParserBenchmark {
+  private static final String EXPRESSION = "  feature/merge-robot : svn :r12306 ";
+  private static final String NOTES = "r12306 git-svn-id: https://svn.example.com/repo/trunk@12306 4dbc7c8a-297d";
+  private static final String DESCRIPTION = "Nightly package for the release train\n[ version : 3.14.159 ]\nbuilt by the merge robot";
+
+  private static final String EXPRESSION_REGEX = "\\A\\s*(\\S+?)\\s*\\:\\s*(svn|git)\\s*\\:(\\S+)\\s*\\Z";
+  private static final String NOTES_REGEX = "\\A\\s*(r\\d+)\\s+.+";
+  private static final String VERSION_REGEX = "\\[\\s*version\\s*\\:\\s*(.+?)\\s*\\]";
+
+  private static final Pattern EXPRESSION_PATTERN = Pattern.compile(EXPRESSION_REGEX, Pattern.CASE_INSENSITIVE);
+  private static final Pattern NOTES_PATTERN = Pattern.compile(NOTES_REGEX, Pattern.CASE_INSENSITIVE);
+  private static final Pattern VERSION_PATTERN = Pattern.compile(VERSION_REGEX, Pattern.CASE_INSENSITIVE);
+
+  private static int sink;
+
+  private ParserBenchmark() {
+  }
+
+  public static void main(final String[] args) {
+    final int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+    for (int round = 0; round < 3; ++round) {
+      final boolean isWarmup = (round < 2);
+
+      report(isWarmup, "expression, regex compiled per call", iterations, new Runnable() {
+        @Override
+        public void run() {
+          final Matcher matcher = Pattern.compile(EXPRESSION_REGEX, Pattern.CASE_INSENSITIVE).matcher(EXPRESSION);
+          sink += matcher.matches() ? matcher.group(3).length() : 0;
+        }
+      });
+      report(isWarmup, "expression, regex precompiled", iterations, new Runnable() {
+        @Override
+        public void run() {
+          final Matcher matcher = EXPRESSION_PATTERN.matcher(EXPRESSION);
+          sink += matcher.matches() ? matcher.group(3).length() : 0;
+        }
+      });
+      report(isWarmup, "expression, scanner", iterations, new Runnable() {
+        @Override
+        public void run() {
+          sink += Expression.parse(EXPRESSION).getRevision().length();
+        }
+      });
+
+      report(isWarmup, "svn notes, regex compiled per call", iterations, new Runnable() {
+        @Override
+        public void run() {
+          final Matcher matcher = Pattern.compile(NOTES_REGEX, Pattern.CASE_INSENSITIVE).matcher(NOTES);
+          sink += matcher.matches() ? matcher.group(1).length() : 0;
+        }
+      });
+      report(isWarmup, "svn notes, regex precompiled", iterations, new Runnable() {
+        @Override
+        public void run() {
+          final Matcher matcher = NOTES_PATTERN.matcher(NOTES);
+          sink += matcher.matches() ? matcher.group(1).length() : 0;
+        }
+      });
+      report(isWarmup, "svn notes, scanner", iterations, new Runnable() {
+        @Override
+        public void run() {
+          sink += Expression.parseSvnRevision(NOTES).length();
+        }
+      });
+
+      report(isWarmup, "version lock, regex compiled per call", iterations, new Runnable() {
+        @Override
+        public void run() {
+          final Matcher matcher = Pattern.compile(VERSION_REGEX, Pattern.CASE_INSENSITIVE).matcher(DESCRIPTION);
+          sink += matcher.find() ? matcher.replaceFirst("\\[version\\:" + matcher.group(1) + "_locked\\]").length() : 0;
+        }
+      });
+      report(isWarmup, "version lock, regex precompiled", iterations, new Runnable() {
+        @Override
+        public void run() {
+          final Matcher matcher = VERSION_PATTERN.matcher(DESCRIPTION);
+          sink += matcher.find() ? matcher.replaceFirst("\\[version\\:" + matcher.group(1) + "_locked\\]").length() : 0;
+        }
+      });
+      report(isWarmup, "version lock, scanner", iterations, new Runnable() {
+        @Override
+        public void run() {
+          sink += VersionDescriptor.find(DESCRIPTION).lock().length();
+        }
+      });
+    }
+
+    System.out.println("(checksum " + sink + ")");
+  }
+
+  private static void report(final boolean isWarmup, final String title, final int iterations, final Runnable runnable) {
+    final long start = System.nanoTime();
+    for (int idx = 0; idx < iterations; ++idx) {
+      runnable.run();
+    }
+    final long elapsed = System.nanoTime() - start;
+
+    if (!isWarmup) {
+      System.out.println(String.format("%-40s %8.1f ns/op", title, (double) elapsed / iterations));
+    }
+  }
+}
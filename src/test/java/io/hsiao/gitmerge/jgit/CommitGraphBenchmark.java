@@ -0,0 +1,114 @@
+package io.hsiao.gitmerge.jgit;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+import io.hsiao.gitmerge.utils.FileUtils;
+
+// Random ancestry and merge base queries on a generated history, commit graph against a revision walk per query
+public final class CommitGraphBenchmark {
+  private CommitGraphBenchmark() {
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final int count = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+    final int queries = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+
+    final File dir = Files.createTempDirectory("commit-graph-benchmark").toFile();
+
+    try (final Repository repository = Git.init().setBare(true).setDirectory(dir).call().getRepository()) {
+      final List<ObjectId> commits = newHistory(repository, new Random(9), count);
+
+      long start = System.nanoTime();
+      final CommitGraph graph = new CommitGraph();
+      graph.add(repository, commits);
+      System.out.println(String.format("graph built, %d commits %10.1f ms", graph.size(), (System.nanoTime() - start) / 1e6));
+
+      // recent commits against older ones, as branch tips against what they are merged with
+      final Random random = new Random(10);
+      final ObjectId[][] pairs = new ObjectId[queries][];
+      for (int idx = 0; idx < queries; ++idx) {
+        pairs[idx] = new ObjectId[] {commits.get(count / 2 + random.nextInt(count / 2)), commits.get(count - 1 - random.nextInt(count / 10))};
+      }
+
+      for (int round = 0; round < 3; ++round) {
+        start = System.nanoTime();
+        for (final ObjectId[] pair: pairs) {
+          graph.isAncestor(pair[0], pair[1]);
+          graph.getMergeBase(pair[0], pair[1]);
+        }
+        final long graphNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (final ObjectId[] pair: pairs) {
+          try (final RevWalk revWalk = new RevWalk(repository)) {
+            revWalk.isMergedInto(revWalk.parseCommit(pair[0]), revWalk.parseCommit(pair[1]));
+          }
+          try (final RevWalk revWalk = new RevWalk(repository)) {
+            revWalk.setRevFilter(RevFilter.MERGE_BASE);
+            revWalk.markStart(revWalk.parseCommit(pair[0]));
+            revWalk.markStart(revWalk.parseCommit(pair[1]));
+            revWalk.next();
+          }
+        }
+        final long walkNanos = System.nanoTime() - start;
+
+        // the first round warms up, later ones also hit the graph's merge base memo as a rerun would
+        if (round > 0) {
+          System.out.println(String.format("round %d, %d query pairs: graph %10.1f us/pair, revision walk %10.1f us/pair", round, queries,
+              graphNanos / 1e3 / queries, walkNanos / 1e3 / queries));
+        }
+      }
+    }
+    finally {
+      FileUtils.rmdir(dir, false);
+    }
+  }
+
+  // a mostly linear history with a merge every few commits
+  private static List<ObjectId> newHistory(final Repository repository, final Random random, final int count) throws Exception {
+    final List<ObjectId> history = new ArrayList<>();
+    final PersonIdent ident = new PersonIdent("robot", "robot@example.com");
+
+    try (final ObjectInserter inserter = repository.newObjectInserter()) {
+      final ObjectId tree = inserter.insert(new TreeFormatter());
+
+      for (int idx = 0; idx < count; ++idx) {
+        final CommitBuilder commitBuilder = new CommitBuilder();
+        commitBuilder.setTreeId(tree);
+        commitBuilder.setAuthor(ident);
+        commitBuilder.setCommitter(ident);
+        commitBuilder.setMessage("commit " + idx);
+
+        if (idx > 0) {
+          final ObjectId parent = history.get(Math.max(0, idx - 1 - random.nextInt(2)));
+          if ((idx > 100) && (random.nextInt(5) == 0)) {
+            commitBuilder.setParentIds(parent, history.get(idx - 1 - random.nextInt(100)));
+          }
+          else {
+            commitBuilder.setParentId(parent);
+          }
+        }
+
+        history.add(inserter.insert(commitBuilder));
+      }
+
+      inserter.flush();
+    }
+
+    return history;
+  }
+}
@@ -0,0 +1,148 @@
+package io.hsiao.gitmerge.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class CommitGraphTest {
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Repository repository;
+  private List<ObjectId> commits;
+
+  @Before
+  public void setUp() throws Exception {
+    repository = Git.init().setBare(true).setDirectory(folder.newFolder("repo.git")).call().getRepository();
+    commits = newHistory(new Random(6), 600);
+  }
+
+  @After
+  public void tearDown() {
+    repository.close();
+  }
+
+  @Test
+  public void matchesRevisionWalk() throws Exception {
+    final CommitGraph graph = new CommitGraph();
+    graph.add(repository, commits);
+
+    assertEquals(commits.size(), graph.size());
+    assertMatches(graph, new Random(7));
+  }
+
+  @Test
+  public void matchesAfterIncrementalAddAndReload() throws Exception {
+    final CommitGraph graph = new CommitGraph();
+    assertEquals(300, graph.add(repository, commits.subList(0, 300)));
+    assertEquals(300, graph.add(repository, commits.subList(300, commits.size())));
+    assertEquals(0, graph.add(repository, commits));
+
+    final File file = new File(folder.getRoot(), "commit-graph.bin");
+    graph.save(file);
+
+    final CommitGraph loaded = CommitGraph.load(file);
+    assertEquals(commits.size(), loaded.size());
+    assertMatches(loaded, new Random(8));
+  }
+
+  @Test
+  public void knowsOnlyAddedCommits() throws Exception {
+    final CommitGraph graph = new CommitGraph();
+    graph.add(repository, commits.subList(0, 10));
+
+    assertTrue(graph.contains(commits.get(0)));
+    assertFalse(graph.contains(commits.get(commits.size() - 1)));
+    assertEquals(0, CommitGraph.load(new File(folder.getRoot(), "missing")).size());
+  }
+
+  private void assertMatches(final CommitGraph graph, final Random random) throws Exception {
+    try (final RevWalk revWalk = new RevWalk(repository)) {
+      for (int query = 0; query < 3000; ++query) {
+        final ObjectId lhs = commits.get(random.nextInt(commits.size()));
+        final ObjectId rhs = commits.get(random.nextInt(commits.size()));
+
+        revWalk.reset();
+        revWalk.setRevFilter(RevFilter.ALL);
+        assertEquals(lhs.name() + " in " + rhs.name(), revWalk.isMergedInto(revWalk.parseCommit(lhs), revWalk.parseCommit(rhs)),
+            graph.isAncestor(lhs, rhs));
+
+        // criss-cross histories have several best merge bases, the graph has to return one of them
+        revWalk.reset();
+        revWalk.setRevFilter(RevFilter.MERGE_BASE);
+        revWalk.markStart(revWalk.parseCommit(lhs));
+        revWalk.markStart(revWalk.parseCommit(rhs));
+
+        final Set<ObjectId> bases = new HashSet<>();
+        for (RevCommit base = revWalk.next(); base != null; base = revWalk.next()) {
+          bases.add(base.copy());
+        }
+
+        final ObjectId base = graph.getMergeBase(lhs, rhs);
+        if (bases.isEmpty()) {
+          assertNull(lhs.name() + " / " + rhs.name(), base);
+        }
+        else {
+          assertTrue(lhs.name() + " / " + rhs.name() + " " + bases + " " + base, bases.contains(base));
+        }
+      }
+    }
+  }
+
+  // a random history with several roots, long chains and merges of up to three parents
+  private List<ObjectId> newHistory(final Random random, final int count) throws Exception {
+    final List<ObjectId> history = new ArrayList<>();
+    final PersonIdent ident = new PersonIdent("robot", "robot@example.com");
+
+    try (final ObjectInserter inserter = repository.newObjectInserter()) {
+      final ObjectId tree = inserter.insert(new TreeFormatter());
+
+      for (int idx = 0; idx < count; ++idx) {
+        final CommitBuilder commitBuilder = new CommitBuilder();
+        commitBuilder.setTreeId(tree);
+        commitBuilder.setAuthor(ident);
+        commitBuilder.setCommitter(ident);
+        commitBuilder.setMessage("commit " + idx);
+
+        if ((idx > 0) && (random.nextInt(40) != 0)) {
+          final Set<ObjectId> parents = new HashSet<>();
+          parents.add(history.get(Math.max(0, idx - 1 - random.nextInt(3))));
+          for (int merges = random.nextInt(4) == 0 ? 1 + random.nextInt(2) : 0; merges > 0; --merges) {
+            parents.add(history.get(random.nextInt(idx)));
+          }
+          commitBuilder.setParentIds(new ArrayList<>(parents));
+        }
+
+        history.add(inserter.insert(commitBuilder));
+      }
+
+      inserter.flush();
+    }
+
+    return history;
+  }
+}
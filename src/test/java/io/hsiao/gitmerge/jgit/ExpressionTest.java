@@ -0,0 +1,99 @@
+package io.hsiao.gitmerge.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public final class ExpressionTest {
+  // the patterns Expression replaced, kept as the reference
+  private static final Pattern EXPRESSION = Pattern.compile("\\A\\s*(\\S+?)\\s*\\:\\s*(svn|git)\\s*\\:(\\S+)\\s*\\Z", Pattern.CASE_INSENSITIVE);
+  private static final Pattern SVN_REVISION = Pattern.compile("\\A\\s*(r\\d+)\\s+.+", Pattern.CASE_INSENSITIVE);
+
+  private static final String[] EXPRESSION_PARTS = {"dev", "feature/x", "svn", "git", "SVN", "Git", ":", ":", " ", "\t", "\n", "r12", "12", "4dbc7c8a", "a:b", "::"};
+  private static final String[] NOTE_PARTS = {"r", "R", "12", "306", " ", "\t", "\n", "\r\n", "x", "git-svn-id", "@", " "};
+
+  @Test
+  public void parsesBranch() {
+    final Expression parsed = Expression.parse("dev");
+
+    assertFalse(parsed.isRevision());
+    assertEquals("dev", parsed.getBranch());
+  }
+
+  @Test
+  public void parsesRevisions() {
+    final Expression svn = Expression.parse("  dev : SVN :r12306 ");
+    assertEquals("dev", svn.getBranch());
+    assertEquals(Expression.TYPE_SVN, svn.getType());
+    assertEquals("r12306", svn.getRevision());
+
+    final Expression git = Expression.parse("dev:git:4dbc7c8a297d");
+    assertEquals("dev", git.getBranch());
+    assertEquals(Expression.TYPE_GIT, git.getType());
+    assertEquals("4dbc7c8a297d", git.getRevision());
+  }
+
+  @Test
+  public void matchesFormerExpressionPattern() {
+    final Random random = new Random(1);
+
+    for (int run = 0; run < 200000; ++run) {
+      final String expression = randomString(random, EXPRESSION_PARTS);
+      final Matcher matcher = EXPRESSION.matcher(expression);
+      final Expression parsed = Expression.parse(expression);
+
+      assertEquals(expression, matcher.matches(), parsed.isRevision());
+      if (parsed.isRevision()) {
+        assertEquals(expression, matcher.group(1), parsed.getBranch());
+        assertEquals(expression, matcher.group(2).toLowerCase(), parsed.getType());
+        assertEquals(expression, matcher.group(3), parsed.getRevision());
+      }
+    }
+  }
+
+  @Test
+  public void matchesFormerSvnRevisionPattern() {
+    final Random random = new Random(2);
+
+    for (int run = 0; run < 200000; ++run) {
+      final String notes = randomString(random, NOTE_PARTS);
+      final Matcher matcher = SVN_REVISION.matcher(notes);
+
+      assertEquals(notes, matcher.matches() ? matcher.group(1) : null, Expression.parseSvnRevision(notes));
+    }
+  }
+
+  // behaviour change: a revision is compared as a whole token, 'r1' used to match the note of r12
+  @Test
+  public void comparesWholeRevisions() {
+    final String notes = "r12 git-svn-id: https://svn/repo@12";
+
+    assertTrue(notes.matches("\\A\\s*" + "r1" + "\\s*.+\\Z"));
+    assertFalse("r1".equalsIgnoreCase(Expression.parseSvnRevision(notes)));
+    assertTrue("r12".equalsIgnoreCase(Expression.parseSvnRevision(notes)));
+  }
+
+  @Test
+  public void rejectsNotesWithoutRevision() {
+    assertNull(Expression.parseSvnRevision(""));
+    assertNull(Expression.parseSvnRevision("r12"));
+    assertNull(Expression.parseSvnRevision("rx 12"));
+  }
+
+  private static String randomString(final Random random, final String[] parts) {
+    final StringBuilder sb = new StringBuilder();
+
+    for (int count = random.nextInt(8); count >= 0; --count) {
+      sb.append(parts[random.nextInt(parts.length)]);
+    }
+
+    return sb.toString();
+  }
+}
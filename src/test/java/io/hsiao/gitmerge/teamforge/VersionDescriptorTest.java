@@ -0,0 +1,97 @@
+package io.hsiao.gitmerge.teamforge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public final class VersionDescriptorTest {
+  // the patterns VersionDescriptor replaced, kept as the reference
+  private static final Pattern VERSION = Pattern.compile("\\[\\s*version\\s*\\:\\s*(.+?)\\s*\\]", Pattern.CASE_INSENSITIVE);
+  private static final Pattern LOCKED = Pattern.compile("\\[\\s*version\\s*\\:\\s*(.+?)(_locked)\\s*\\]", Pattern.CASE_INSENSITIVE);
+
+  private static final String[] PARTS = {"[", "]", "version", "VERSION", ":", " ", "\n", "1.0", "2.3.4", "_locked", "_LOCKED", "x", "[version:", "$1", "\\"};
+
+  @Test
+  public void locksAndUnlocks() {
+    final String description = "package [ Version : 1.2.3 ] notes";
+
+    final String locked = VersionDescriptor.find(description).lock();
+    assertEquals("package [version:1.2.3_locked] notes", locked);
+    assertTrue(VersionDescriptor.find(locked).isLocked());
+
+    assertEquals("package [version:1.2.3] notes", VersionDescriptor.findLocked(locked).unlock());
+  }
+
+  @Test
+  public void matchesFormerPatterns() {
+    final Random random = new Random(3);
+
+    for (int run = 0; run < 200000; ++run) {
+      final String description = randomString(random);
+
+      final Matcher matcher = VERSION.matcher(description);
+      final VersionDescriptor descriptor = VersionDescriptor.find(description);
+      if (matcher.find() && isVersion(matcher.group(1))) {
+        assertNotNull(description, descriptor);
+        assertEquals(description, matcher.group(1), descriptor.getVersion());
+      }
+
+      final Matcher lockedMatcher = LOCKED.matcher(description);
+      final VersionDescriptor locked = VersionDescriptor.findLocked(description);
+      if (lockedMatcher.find() && isVersion(lockedMatcher.group(1))) {
+        assertNotNull(description, locked);
+        assertEquals(description, lockedMatcher.group(1) + lockedMatcher.group(2), locked.getVersion());
+      }
+    }
+  }
+
+  @Test
+  public void acceptsBracketOnNextLine() {
+    assertEquals("1.2", VersionDescriptor.find("[version: 1.2\n]").getVersion());
+    assertNull(VersionDescriptor.find("[version: 1.2\n3]"));
+  }
+
+  // behaviour change: a blank version is not a descriptor, the former pattern ran on to the next ']'
+  @Test
+  public void ignoresBlankVersion() {
+    assertTrue(VERSION.matcher("[version: ]").find());
+    assertNull(VersionDescriptor.find("[version: ]"));
+    assertNull(VersionDescriptor.find("[version:] x]"));
+    assertEquals("2", VersionDescriptor.find("[version: ] [version:2]").getVersion());
+  }
+
+  // a version ends at the first ']', the former locked pattern could run past it
+  @Test
+  public void endsVersionAtBracket() {
+    assertTrue(LOCKED.matcher("[version:1] x_locked]").find());
+    assertNull(VersionDescriptor.findLocked("[version:1] x_locked]"));
+  }
+
+  // behaviour change: the new version is inserted as is, replaceFirst used to treat '$' and '\' as group references
+  @Test
+  public void insertsVersionLiterally() {
+    assertEquals("[version:a$1\\b_locked]", VersionDescriptor.find("[version:a$1\\b]").lock());
+  }
+
+  // versions both scanners agree on, see the behaviour changes below
+  private static boolean isVersion(final String version) {
+    return !version.trim().isEmpty() && (version.indexOf(']') < 0);
+  }
+
+  private static String randomString(final Random random) {
+    final StringBuilder sb = new StringBuilder();
+
+    for (int count = random.nextInt(10); count >= 0; --count) {
+      sb.append(PARTS[random.nextInt(PARTS.length)]);
+    }
+
+    return sb.toString();
+  }
+}
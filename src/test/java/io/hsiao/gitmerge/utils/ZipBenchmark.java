@@ -0,0 +1,66 @@
+package io.hsiao.gitmerge.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+// Sequential against parallel blame archive writer on a generated tree, per thread count
+public final class ZipBenchmark {
+  private ZipBenchmark() {
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final int files = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+    final int lines = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+
+    final File root = Files.createTempDirectory("zip-benchmark").toFile();
+
+    try {
+      final File tree = newTree(new File(root, "tree"), files, lines);
+      final File dest = new File(root, "blame.zip");
+
+      final int processors = Runtime.getRuntime().availableProcessors();
+      final int[] threads = {1, 2, 4, processors};
+
+      for (int round = 0; round < 4; ++round) {
+        for (final int thread: threads) {
+          final long start = System.nanoTime();
+          ZipUtils.pack(tree, dest, false, thread);
+          final long elapsed = System.nanoTime() - start;
+
+          // the first round warms up
+          if (round > 0) {
+            System.out.println(String.format("round %d, %2d thread(s) %8.1f ms %10d bytes", round, thread, elapsed / 1e6, dest.length()));
+          }
+        }
+      }
+    }
+    finally {
+      FileUtils.rmdir(root, false);
+    }
+  }
+
+  private static File newTree(final File root, final int files, final int lines) throws IOException {
+    final Random random = new Random(5);
+
+    for (int idx = 0; idx < files; ++idx) {
+      final File dir = new File(root, "src" + File.separator + "module" + (idx % 10));
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("failed to create [" + dir + "]");
+      }
+
+      final StringBuilder sb = new StringBuilder();
+      for (int line = 1; line <= lines; ++line) {
+        sb.append(String.format("%08x (%-12s 2015-%02d-%02d 12:00:00 +0800 %5d) ", random.nextInt(), "author" + random.nextInt(20),
+            1 + random.nextInt(12), 1 + random.nextInt(28), line));
+        sb.append("    final int value").append(random.nextInt(100)).append(" = compute(").append(random.nextInt(1000)).append(");\n");
+      }
+
+      Files.write(new File(dir, "File" + idx + ".java.blame").toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    return root;
+  }
+}
@@ -0,0 +1,173 @@
+package io.hsiao.gitmerge.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class ZipUtilsTest {
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void parallelMatchesSequential() throws Exception {
+    final File source = newTree();
+
+    final File sequential = new File(folder.getRoot(), "sequential.zip");
+    final File parallel = new File(folder.getRoot(), "parallel.zip");
+    ZipUtils.pack(source, sequential, false, 1);
+    ZipUtils.pack(source, parallel, false, 4);
+
+    final Map<String, long[]> sequentialEntries = readEntries(sequential);
+    final Map<String, long[]> parallelEntries = readEntries(parallel);
+
+    assertEquals(new ArrayList<>(sequentialEntries.keySet()), new ArrayList<>(parallelEntries.keySet()));
+    for (final Map.Entry<String, long[]> entry: sequentialEntries.entrySet()) {
+      assertArrayEquals(entry.getKey(), entry.getValue(), parallelEntries.get(entry.getKey()));
+    }
+  }
+
+  @Test
+  public void parallelExtractsToSource() throws Exception {
+    final File source = newTree();
+    final File parallel = new File(folder.getRoot(), "parallel.zip");
+    ZipUtils.pack(source, parallel, false, 3);
+
+    final List<String> files = new ArrayList<>();
+
+    // streaming readers rely on the local headers alone
+    try (final ZipInputStream zis = new ZipInputStream(Files.newInputStream(parallel.toPath()), StandardCharsets.UTF_8)) {
+      for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+        final File file = new File(source, entry.getName());
+
+        if (entry.isDirectory()) {
+          assertTrue(entry.getName(), file.isDirectory());
+          continue;
+        }
+
+        assertArrayEquals(entry.getName(), Files.readAllBytes(file.toPath()), readAll(zis));
+        files.add(entry.getName());
+      }
+    }
+
+    final List<String> expected = new ArrayList<>();
+    for (final File file: listFiles(source)) {
+      expected.add(source.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/'));
+    }
+
+    Collections.sort(files);
+    Collections.sort(expected);
+    assertEquals(expected, files);
+  }
+
+  @Test
+  public void skipsEmptyDirectory() throws Exception {
+    final File empty = folder.newFolder("empty");
+    final File dest = new File(folder.getRoot(), "empty.zip");
+
+    ZipUtils.pack(empty, dest, false, 4);
+    assertFalse(dest.exists());
+  }
+
+  private File newTree() throws IOException {
+    final File root = folder.newFolder("tree");
+    final Random random = new Random(4);
+
+    for (int idx = 0; idx < 40; ++idx) {
+      final File dir = new File(root, "dir" + (idx % 5) + File.separator + "sub" + (idx % 3));
+      assertTrue(dir.isDirectory() || dir.mkdirs());
+
+      final StringBuilder sb = new StringBuilder();
+      for (int line = random.nextInt(2000); line > 0; --line) {
+        sb.append("^4dbc7c8 (someone 2015-06-01 12:00:00 +0800 ").append(line).append(") line ").append(random.nextInt()).append("\n");
+      }
+      Files.write(new File(dir, "blame" + idx + ".txt").toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    final byte[] noise = new byte[300 * 1024];
+    random.nextBytes(noise);
+    Files.write(new File(root, "noise.bin").toPath(), noise);
+    Files.write(new File(root, "empty.txt").toPath(), new byte[0]);
+    Files.write(new File(root, "with space.txt").toPath(), "name with a space".getBytes(StandardCharsets.UTF_8));
+    assertTrue(new File(root, "empty-dir").mkdirs());
+
+    return root;
+  }
+
+  // name -> { size, crc, directory } as seen through the central directory, checking every entry's data
+  private static Map<String, long[]> readEntries(final File zip) throws IOException {
+    final Map<String, long[]> entries = new LinkedHashMap<>();
+
+    try (final ZipFile zipFile = new ZipFile(zip, StandardCharsets.UTF_8)) {
+      for (final Enumeration<? extends ZipEntry> iter = zipFile.entries(); iter.hasMoreElements();) {
+        final ZipEntry entry = iter.nextElement();
+
+        final byte[] data;
+        try (final InputStream ins = zipFile.getInputStream(entry)) {
+          data = readAll(ins);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+
+        assertEquals(entry.getName(), entry.getSize(), data.length);
+        assertEquals(entry.getName(), entry.getCrc(), crc.getValue());
+        entries.put(entry.getName(), new long[] {entry.getSize(), entry.getCrc(), entry.isDirectory() ? 1 : 0});
+      }
+    }
+
+    return entries;
+  }
+
+  private static byte[] readAll(final InputStream ins) throws IOException {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8192];
+
+    int len;
+    while ((len = ins.read(buffer)) > 0) {
+      bos.write(buffer, 0, len);
+    }
+
+    return bos.toByteArray();
+  }
+
+  private static List<File> listFiles(final File dir) {
+    final List<File> files = new ArrayList<>();
+
+    final File[] children = dir.listFiles();
+    if (children != null) {
+      for (final File child: children) {
+        if (child.isDirectory()) {
+          files.addAll(listFiles(child));
+        }
+        else {
+          files.add(child);
+        }
+      }
+    }
+
+    return files;
+  }
+}